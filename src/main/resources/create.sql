@@ -1,13 +1,15 @@
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
-    Hash BINARY(16),
+    Hash VARBINARY(64),
+    HashVersion varchar(64),
     PRIMARY KEY (Username)
 );
 
 CREATE TABLE Availabilities (
     Time date,
     Username varchar(255) REFERENCES Caregivers,
+    Changed rowversion,
     PRIMARY KEY (Time, Username)
 );
 
@@ -20,7 +22,8 @@ CREATE TABLE Vaccines (
 CREATE TABLE Patients(
     Username varchar(255),
     Salt BINARY(16),
-    Hash BINARY(16),
+    Hash VARBINARY(64),
+    HashVersion varchar(64),
     PRIMARY KEY (Username)
 );
 
@@ -30,4 +33,70 @@ CREATE TABLE Appointments(
     PatientUser varchar(255) REFERENCES Patients(Username),
     VaccineName varchar(255) REFERENCES Vaccines(Name),
     ApptTime date,
-);
\ No newline at end of file
+    Lot varchar(64),
+);
+
+-- archive_before walks the hot table by date
+CREATE INDEX AppointmentsByTime ON Appointments(ApptTime);
+
+-- request keys of reserve; ApptID is filled in later in the same transaction
+CREATE TABLE ReserveRequests(
+    PatientUser varchar(255) REFERENCES Patients(Username),
+    RequestKey varchar(64),
+    ApptID int REFERENCES Appointments(ApptID) ON DELETE CASCADE,
+    PRIMARY KEY (PatientUser, RequestKey)
+);
+
+CREATE TABLE VaccineLots(
+    Vaccine varchar(255) REFERENCES Vaccines(Name),
+    Lot varchar(64),
+    Expiry date NOT NULL,
+    Doses int NOT NULL,
+    PRIMARY KEY (Vaccine, Lot)
+);
+
+-- one row per reservation journal, keyed by the id in its header
+CREATE TABLE JournalWatermark(
+    Journal int PRIMARY KEY,
+    Seq bigint NOT NULL
+);
+
+CREATE TABLE BookingStats(
+    Day date,
+    Kind varchar(16),
+    Name varchar(255),
+    Count bigint NOT NULL,
+    PRIMARY KEY (Day, Kind, Name)
+);
+
+-- written by the statements that change Vaccines, VaccineLots and Availabilities, read in Changed order
+CREATE TABLE ChangeEvents(
+    Seq bigint IDENTITY(1,1) PRIMARY KEY NOT NULL,
+    Origin varchar(36) NOT NULL,
+    Kind varchar(16) NOT NULL,
+    Name varchar(255) NOT NULL,
+    Lot varchar(64),
+    Day date,
+    Delta int NOT NULL,
+    Changed rowversion,
+    Created datetime2 NOT NULL DEFAULT SYSUTCDATETIME(),
+    PRIMARY KEY (Journal, Seq)
+);
+
+CREATE INDEX ChangeEventsByChanged ON ChangeEvents(Changed);
+
+-- instances load their in-memory copies in one snapshot together with the change events it reflects
+ALTER DATABASE CURRENT SET ALLOW_SNAPSHOT_ISOLATION ON;
+
+-- journalled reservations the write-behind flusher could not apply, parked instead of retried forever
+CREATE TABLE ReservationConflicts(
+    Journal int,
+    Seq bigint,
+    CaregiverUser varchar(255),
+    PatientUser varchar(255),
+    VaccineName varchar(255),
+    ApptTime date,
+    Reason varchar(255) NOT NULL,
+    Created datetime2 NOT NULL DEFAULT SYSUTCDATETIME(),
+    PRIMARY KEY (Journal, Seq)
+);
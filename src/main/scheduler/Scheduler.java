@@ -1,75 +1,409 @@
 package scheduler;
 
+import scheduler.archive.AppointmentArchive;
+import scheduler.audit.AuditEvent;
+import scheduler.audit.EventLog;
+import scheduler.changes.ChangeChannel;
+import scheduler.changes.ChangeEvent;
+import scheduler.changes.DatabaseChangeChannel;
+import scheduler.command.Command;
+import scheduler.command.CommandRegistry;
+import scheduler.command.Role;
+import scheduler.db.AsyncStorage;
 import scheduler.db.ConnectionManager;
+import scheduler.db.Storage;
+import scheduler.db.jdbc.JdbcAvailabilityRepository;
+import scheduler.db.jdbc.JdbcVaccineRepository;
+import scheduler.journal.JournalRecord;
+import scheduler.journal.ReservationJournal;
+import scheduler.journal.WriteBehindFlusher;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
+import scheduler.plan.EventPlan;
+import scheduler.plan.EventPlanner;
+import scheduler.plan.PlanRequest;
+import scheduler.state.AvailabilityCalendar;
+import scheduler.state.LotInventory;
+import scheduler.state.RequestKeyCache;
+import scheduler.state.SchedulerState;
+import scheduler.state.StateSnapshot;
+import scheduler.stats.BookingStats;
+import scheduler.util.PasswordHasher;
+import scheduler.util.PasswordPolicy;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
-
-    private static String[] checks = {
-            "Password is at least 8 characters: ",
-            "Passwrod contains both uppercase and lowercase letters: ",
-            "Password contains a mixture of letters and numbers: ",
-            "Password includes at least one special character, from '!', '@', '#', '?': "}
-            ;
-
-    public static String[] patterns = {".{8,}", "\\b(?![a-z]+\\b|[A-Z]+\\b)[a-zA-Z]+", "[a-zA-Z][0-9]", "[!@#$?]+"};
-
-    private static String[] checkPassword(String password, String[] checks, String[] patterns) {
-        Pattern pattern;
-        String response = "";
-        String[] header = new String[2];
-        header[0] = "t";
-        for (int i = 0; i < checks.length; i++) {
-            response += checks[i];
-            pattern = Pattern.compile(patterns[i]);
-            if (pattern.matcher(password).find()) {
-                response += "Yes\n";
-            } else {
-                response += "No\n";
-                header[0] = "x";
+    // state of one user's command-line session; the interactive loop has one, the load test one per simulated user
+    private static class Session {
+        // objects to keep track of the currently logged-in user
+        // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+        //       since only one user can be logged-in at a time
+        private Caregiver currentCaregiver = null;
+        private Patient currentPatient = null;
+
+        // what the command being run did, published to the event log once it returns
+        private String auditOutcome = "ok";
+        private int auditApptId = 0;
+        private String auditNote = null;
+        private Exception auditError = null;
+    }
+
+    private static final ThreadLocal<Session> sessions = ThreadLocal.withInitial(Session::new);
+
+    private static Session session() {
+        return sessions.get();
+    }
+
+    // write-behind mode (WriteBehind=true): reserve is decided against in-memory state, journalled locally and
+    // written to the database in the background; state is null when the mode is off
+    private static SchedulerState state = null;
+    private static ReservationJournal journal = null;
+    private static WriteBehindFlusher flusher = null;
+    private static Path snapshotFile = null;
+    // how long a reserve waits for a full journal to drain before it fails
+    private static final long JOURNAL_FULL_WAIT_MS = 5_000;
+
+    // per-day booking counters behind stats_bookings
+    private static final BookingStats stats = new BookingStats();
+
+    // per-caregiver day bitmaps behind calendar
+    private static final AvailabilityCalendar calendar = new AvailabilityCalendar();
+
+    // doses left per vaccine lot, so reserve draws from the lot that expires first
+    private static final LotInventory lots = new LotInventory();
+
+    // reservations made with a request key, so a retried reserve gets the original answer
+    private static final RequestKeyCache requests = new RequestKeyCache(System.getenv("RequestCacheSize") == null ?
+            10000 : Integer.parseInt(System.getenv("RequestCacheSize")));
+
+    // cold tier of past appointments, moved out of the Appointments table by archive_before
+    private static final AppointmentArchive archive = new AppointmentArchive(
+            Paths.get(System.getenv("ArchiveDir") == null ? "archive" : System.getenv("ArchiveDir")));
+    // appointments per archive_before step: read, appended to the archive, then deleted from the hot table
+    private static final int archiveBatch = System.getenv("ArchiveBatch") == null ? 1000 :
+            Integer.parseInt(System.getenv("ArchiveBatch"));
+
+    // carries this instance's changes to other instances sharing the database, and theirs to us; null when
+    // running on the in-memory engine
+    private static ChangeChannel changes = null;
+
+    // periodic housekeeping: statistics flushes, scheduled archiving and, in write-behind mode, state snapshots
+    private static final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "scheduler-background");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final CommandRegistry commands = new CommandRegistry();
+
+    static {
+        commands.register(new Command("create_patient", "create_patient <username> <password>", 3, 3, Role.ANYONE,
+                "Failed to create user.", Scheduler::createPatient));
+        commands.register(new Command("create_caregiver", "create_caregiver <username> <password>", 3, 3,
+                Role.ANYONE, "Failed to create user.", Scheduler::createCaregiver));
+        commands.register(new Command("login_patient", "login_patient <username> <password>", 3, 3,
+                Role.LOGGED_OUT, "Login failed.", Scheduler::loginPatient));
+        commands.register(new Command("login_caregiver", "login_caregiver <username> <password>", 3, 3,
+                Role.LOGGED_OUT, "Login failed.", Scheduler::loginCaregiver));
+        commands.register(new Command("search_caregiver_schedule", "search_caregiver_schedule <date>", 2, 2,
+                Role.LOGGED_IN, "Please try again!", Scheduler::searchCaregiverSchedule));
+        commands.register(new Command("reserve", "reserve <date> <vaccine> [<request-key>]", 3, 4, Role.PATIENT,
+                "Please try again!", Scheduler::reserve));
+        commands.register(new Command("reserve_series", "reserve_series <date> <vaccine> <interval-min> <interval-max>",
+                5, 5, Role.PATIENT, "Please try again!", Scheduler::reserveSeries));
+        commands.register(new Command("upload_availability", "upload_availability <date>", 2, 2, Role.CAREGIVER,
+                "Please try again!", Scheduler::uploadAvailability));
+        // TODO: cancel <appointment_id> (extra credit); not registered until it releases the slot, the dose and the
+        // lot dose and takes the booking out of the statistics
+        commands.register(new Command("add_doses", "add_doses <vaccine> <number> [<lot> <expiry>]", 3, 5,
+                Role.CAREGIVER, "Please try again!", Scheduler::addDoses));
+        commands.register(new Command("plan_event", "plan_event <requests-file>", 2, 2, Role.CAREGIVER,
+                "Please try again!", Scheduler::planEvent));
+        commands.register(new Command("archive_before", "archive_before <date>", 2, 2, Role.CAREGIVER,
+                "Please try again!", Scheduler::archiveBefore));
+        commands.register(new Command("show_appointments", "show_appointments [<from> <to>]", 1, 3, Role.LOGGED_IN,
+                "Please try again!", Scheduler::showAppointments));
+        commands.register(new Command("stats_bookings", "stats_bookings <from> <to>", 3, 3, Role.CAREGIVER,
+                "Please try again!", Scheduler::statsBookings));
+        commands.register(new Command("calendar", "calendar <yyyy-mm> [caregiver ...]", 2, Integer.MAX_VALUE,
+                Role.LOGGED_IN, "Please try again!", Scheduler::calendar));
+        commands.register(new Command("logout", "logout", 1, 1, Role.LOGGED_IN, "Please try again!",
+                Scheduler::logout));
+    }
+
+    // loaded is the state read by the change channel, or null to read it here
+    private static void startWriteBehind(SchedulerState loaded) {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            if (loaded == null) {
+                loaded = loadState(cm);
+            }
+            journal = new ReservationJournal(Paths.get(journalDir(), "reservations.journal"));
+            // reservations acknowledged before the last shutdown but never written to the database
+            List<JournalRecord> pending = journal.replay(WriteBehindFlusher.readWatermark(journal.getId()));
+            for (JournalRecord record : pending) {
+                loaded.apply(record.getApptTime(), record.getVaccineName(), record.getCaregiverUser());
+                calendar.remove(record.getApptTime(), record.getCaregiverUser());
+                if (record.getLot() != null) {
+                    lots.take(record.getVaccineName(), record.getLot());
+                }
+                if (record.getRequestKey() != null) {
+                    requests.put(record.getPatientUser(), record.getRequestKey(), new Appointment((int) record.getSeq(),
+                            record.getCaregiverUser(), record.getPatientUser(), record.getVaccineName(),
+                            record.getApptTime(), record.getLot()));
+                }
+            }
+            flusher = new WriteBehindFlusher(journal);
+            flusher.submitAll(pending);
+            flusher.start();
+            state = loaded;
+            startSnapshotWriter();
+        } catch (SQLException | IOException e) {
+            System.out.println("Write-behind mode unavailable, reservations will be saved directly.");
+            EventLog.error("write-behind", e);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static String journalDir() {
+        return System.getenv("JournalDir") == null ? "journal" : System.getenv("JournalDir");
+    }
+
+    // Warm start: restores the last snapshot and reads only what changed since, otherwise loads everything
+    private static SchedulerState loadState(ConnectionManager cm) throws SQLException, IOException {
+        snapshotFile = Paths.get(journalDir(), "state.snapshot");
+        SchedulerState loaded = StateSnapshot.read(snapshotFile);
+        if (loaded != null) {
+            loaded.reconcile(cm);
+        } else {
+            loaded = new SchedulerState();
+            loaded.load(cm);
+        }
+        return loaded;
+    }
+
+    private static void startSnapshotWriter() {
+        String minutes = System.getenv("SnapshotMinutes");
+        long interval = minutes == null ? 5 : Long.parseLong(minutes);
+        background.scheduleWithFixedDelay(Scheduler::writeSnapshot, interval, interval, TimeUnit.MINUTES);
+    }
+
+    private static void writeSnapshot() {
+        try {
+            StateSnapshot.write(state, snapshotFile);
+        } catch (IOException e) {
+            EventLog.error("snapshot", e);
+        }
+    }
+
+    private static void stopWriteBehind() {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            EventLog.error("write-behind", e);
+        }
+        if (state != null) {
+            writeSnapshot();
+        }
+    }
+
+    private static void startLots() {
+        try {
+            lots.load(Storage.vaccines().findLots());
+        } catch (SQLException e) {
+            System.out.println("Error occurred when loading vaccine lots");
+            EventLog.error("lots", e);
+        }
+    }
+
+    private static void startStats() {
+        try {
+            stats.load();
+        } catch (SQLException e) {
+            System.out.println("Error occurred when loading booking statistics");
+            EventLog.error("stats", e);
+        }
+        String minutes = System.getenv("StatsMinutes");
+        long interval = minutes == null ? 1 : Long.parseLong(minutes);
+        background.scheduleWithFixedDelay(Scheduler::flushStats, interval, interval, TimeUnit.MINUTES);
+    }
+
+    private static void startCalendar() {
+        if (state != null) {
+            calendar.load(state.getAllAvailabilities());
+            return;
+        }
+        try {
+            calendar.load(Storage.availabilities().findAll());
+        } catch (SQLException e) {
+            System.out.println("Error occurred when loading the availability calendar");
+            EventLog.error("calendar", e);
+        }
+    }
+
+    // Scheduled mode (ArchiveAfterDays=n): every ArchiveMinutes (default 60) archives the appointments more than
+    // n days old
+    private static void startArchiver() {
+        String days = System.getenv("ArchiveAfterDays");
+        if (days == null) {
+            return;
+        }
+        long age = Long.parseLong(days);
+        String minutes = System.getenv("ArchiveMinutes");
+        long interval = minutes == null ? 60 : Long.parseLong(minutes);
+        background.scheduleWithFixedDelay(() -> {
+            try {
+                moveToArchive(Date.valueOf(LocalDate.now().minusDays(age)));
+            } catch (SQLException | IOException e) {
+                EventLog.error("archive", e);
+            }
+        }, interval, interval, TimeUnit.MINUTES);
+    }
+
+    private static void flushStats() {
+        try {
+            stats.flush();
+        } catch (SQLException e) {
+            EventLog.error("stats", e);
+        }
+    }
+
+    // Loads the vaccine lots, the calendar and, in write-behind mode, the state in one snapshot with the changes
+    // from other instances it already reflects. Returns the state, or null if there is none or the load failed,
+    // in which case the channel stays off and each part is loaded on its own.
+    private static SchedulerState startChanges(boolean writeBehind) {
+        ChangeChannel channel = new DatabaseChangeChannel();
+        SchedulerState[] loaded = new SchedulerState[1];
+        try {
+            channel.load(cm -> {
+                lots.load(JdbcVaccineRepository.findLots(cm));
+                calendar.load(JdbcAvailabilityRepository.findAll(cm));
+                if (writeBehind) {
+                    loaded[0] = loadState(cm);
+                }
+            });
+            changes = channel;
+            return loaded[0];
+        } catch (SQLException | IOException e) {
+            System.out.println("Error occurred when loading changes from other instances");
+            EventLog.error("changes", e);
+            return null;
+        }
+    }
+
+    // Patches what this instance holds in memory with a change committed by another instance
+    private static void applyChange(ChangeEvent event) {
+        if (event.getKind().equals(ChangeEvent.VACCINE)) {
+            if (state != null) {
+                state.addDoses(event.getName(), event.getDelta());
+            }
+        } else if (event.getKind().equals(ChangeEvent.LOT)) {
+            lots.add(event.getName(), event.getLot(), event.getDay(), event.getDelta());
+        } else if (event.getDelta() > 0) {
+            if (state != null) {
+                state.addAvailability(event.getDay(), event.getName());
+            }
+            calendar.add(event.getDay(), event.getName());
+        } else {
+            if (state != null) {
+                state.removeAvailability(event.getDay(), event.getName());
             }
+            calendar.remove(event.getDay(), event.getName());
+        }
+    }
+
+    // Starts the optional write-behind mode and the background statistics flush
+    public static void start() {
+        // calibrates the hash iterations now rather than on the first signup
+        PasswordHasher.getInstance();
+        // the journal, the stats table and the change events live in the database, so they are only used with the
+        // JDBC engine
+        boolean writeBehind = Storage.isJdbc() && "true".equalsIgnoreCase(System.getenv("WriteBehind"));
+        SchedulerState loaded = Storage.isJdbc() ? startChanges(writeBehind) : null;
+        if (changes == null) {
+            // before the journal replay, which takes back the lot doses of reservations not yet in the database
+            startLots();
+        }
+        if (writeBehind) {
+            startWriteBehind(loaded);
+        }
+        if (Storage.isJdbc()) {
+            startStats();
+        }
+        if (changes == null) {
+            startCalendar();
+        } else {
+            // only once state is set, so that no change is dropped or applied to a copy that is still being built
+            changes.subscribe(Scheduler::applyChange);
+        }
+        startArchiver();
+    }
+
+    // Writes out everything still held in memory; called on quit
+    public static void stop() {
+        stopWriteBehind();
+        if (Storage.isJdbc()) {
+            flushStats();
+        }
+        background.shutdown();
+        try {
+            // lets a running housekeeping task and async storage calls finish
+            background.awaitTermination(5, TimeUnit.SECONDS);
+            AsyncStorage.shutdown(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        header[1] = response.trim();
-        return header;
+        if (changes != null) {
+            changes.close();
+        }
+        ConnectionManager.closeAll();
+        EventLog.getInstance().close(5000);
     }
 
     public static void main(String[] args) {
+        start();
         // printing greetings text
         System.out.println();
         System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
         System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
+        for (Command command : commands.getCommands()) {
+            System.out.println("> " + command.getUsage());
+        }
         System.out.println("> quit");
         System.out.println();
 
@@ -83,495 +417,1004 @@ public class Scheduler {
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
-            }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            // end of input, e.g. a piped script that does not end with quit
+            if (response == null) {
+                response = "quit";
+            }
+            if (!execute(response)) {
                 return;
+            }
+        }
+    }
+
+    // Runs one command line in the calling thread's session; returns false once the user asked to quit
+    public static boolean execute(String response) {
+        String[] tokens = CommandRegistry.tokenize(response);
+        // check if input exists
+        if (tokens.length == 0) {
+            System.out.println("Please try again!");
+            return true;
+        }
+        // determine which operation to perform
+        String operation = tokens[0];
+        long start = System.nanoTime();
+        String userBefore = currentUser();
+        session().auditOutcome = "ok";
+        session().auditApptId = 0;
+        session().auditNote = null;
+        session().auditError = null;
+        if (operation.equals("quit")) {
+            audit(operation, userBefore, tokens, start);
+            stop();
+            System.out.println("Bye!");
+            return false;
+        }
+        Command command = commands.find(operation);
+        if (command == null) {
+            fail("Invalid operation name!");
+        } else {
+            String roleError = checkRole(command.getRole());
+            if (roleError != null) {
+                fail(roleError);
+            } else if (!command.acceptsArity(tokens.length)) {
+                fail(command.getArityError());
             } else {
-                System.out.println("Invalid operation name!");
+                command.run(tokens);
             }
         }
+        audit(operation, userBefore, tokens, start);
+        return true;
     }
 
-    private static void createPatient(String[] tokens) {
-        if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
-            return;
+    // Returns the message to show if the session may not run a command with this role, otherwise null
+    private static String checkRole(Role role) {
+        boolean caregiver = session().currentCaregiver != null;
+        boolean patient = session().currentPatient != null;
+        switch (role) {
+            case LOGGED_OUT:
+                return caregiver || patient ? "User already logged in." : null;
+            case LOGGED_IN:
+                return caregiver || patient ? null : "Please login first!";
+            case PATIENT:
+                if (caregiver) {
+                    return "Please login as a patient!";
+                }
+                return patient ? null : "Please login first!";
+            case CAREGIVER:
+                return caregiver ? null : "Please login as a caregiver first!";
+            default:
+                return null;
+        }
+    }
+
+    // Outcome of the last command run in the calling thread's session: "ok", "error" or the failure message
+    public static String lastOutcome() {
+        return session().auditOutcome;
+    }
+
+    private static String currentUser() {
+        if (session().currentPatient != null) {
+            return "patient:" + session().currentPatient.getUsername();
+        }
+        if (session().currentCaregiver != null) {
+            return "caregiver:" + session().currentCaregiver.getUsername();
+        }
+        return null;
+    }
+
+    private static void audit(String operation, String userBefore, String[] tokens, long start) {
+        String user = userBefore != null ? userBefore : currentUser();
+        // arguments are kept for the audit trail, except passwords
+        String detail;
+        if (operation.startsWith("create_") || operation.startsWith("login_")) {
+            detail = tokens.length > 1 ? tokens[1] : null;
+        } else {
+            detail = String.join(" ", Arrays.copyOfRange(tokens, 1, tokens.length));
+        }
+        if (session().auditNote != null) {
+            detail = detail.isEmpty() ? session().auditNote : detail + " " + session().auditNote;
+        }
+        long latencyMicros = (System.nanoTime() - start) / 1000;
+        EventLog.getInstance().publish(new AuditEvent(System.currentTimeMillis(), operation, user, latencyMicros,
+                session().auditOutcome, session().auditApptId, detail, session().auditError));
+    }
+
+    // Prints a failure message and records it as the outcome of the current command, unless an exception has
+    // already been recorded: recordError alone decides the outcome of a command that failed with one
+    private static void fail(String message) {
+        System.out.println(message);
+        if (session().auditError == null) {
+            session().auditOutcome = message;
         }
+    }
+
+    private static void recordError(Exception e) {
+        session().auditError = e;
+        session().auditOutcome = "error";
+    }
+
+    private static void createPatient(String[] tokens) {
         String username = tokens[1];
         String password = tokens[2];
-        // check 2: check if the username has been taken already
+        // check if the username has been taken already
         if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
+            fail("Username taken, try again!");
             return;
         }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
-        //password check
-        String[] passwordHead = checkPassword(password, checks, patterns);
-        if (passwordHead[0].equals("x")) {
-            System.out.println("Password did not meet the requirements, try again.");
-            System.out.println(passwordHead[1]);
+        // password check, before paying for the hash
+        int passed = PasswordPolicy.DEFAULT.check(password);
+        if (!PasswordPolicy.isSatisfied(passed)) {
+            fail("Password did not meet the requirements, try again.");
+            System.out.println(PasswordPolicy.DEFAULT.report(passed));
             return;
         }
         //create patient
         try {
-            currentPatient = new Patient.PatientBuilder(username, salt, hash).build();
+            byte[] salt = Util.generateSalt();
+            PasswordHasher hasher = PasswordHasher.getInstance();
+            byte[] hash = hasher.hash(password, salt);
+            session().currentPatient = new Patient.PatientBuilder(username, salt, hash, hasher.getCurrentVersion()).build();
             // save to patient information to our database
-            currentPatient.saveToDB();
+            session().currentPatient.saveToDB();
+            if (state != null) {
+                state.getPatients().add(username);
+            }
             System.out.println("Created user " + username);
+        } catch (IllegalStateException e) {
+            fail(e.getMessage());
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
-            e.printStackTrace();
+            fail("Failed to create user.");
+            recordError(e);
         }
     }
 
     private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+        if (state != null && state.getPatients().contains(username)) {
+            return true;
+        }
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Storage.patients().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            fail("Error occurred when checking username");
+            recordError(e);
         }
         return true;
     }
 
     private static void createCaregiver(String[] tokens) {
         // create_caregiver <username> <password>
-        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
-            return;
-        }
         String username = tokens[1];
         String password = tokens[2];
-        // check 2: check if the username has been taken already
+        // check if the username has been taken already
         if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+            fail("Username taken, try again!");
             return;
         }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
-        // password check
-        String[] passwordHead = checkPassword(password, checks, patterns);
-        if (passwordHead[0].equals("x")) {
-            System.out.println("Password did not meet the requirements, try again.");
-            System.out.println(passwordHead[1]);
+        // password check, before paying for the hash
+        int passed = PasswordPolicy.DEFAULT.check(password);
+        if (!PasswordPolicy.isSatisfied(passed)) {
+            fail("Password did not meet the requirements, try again.");
+            System.out.println(PasswordPolicy.DEFAULT.report(passed));
             return;
         }
         // create the caregiver
         try {
-            currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
+            byte[] salt = Util.generateSalt();
+            PasswordHasher hasher = PasswordHasher.getInstance();
+            byte[] hash = hasher.hash(password, salt);
+            session().currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash, hasher.getCurrentVersion()).build();
             // save to caregiver information to our database
-            currentCaregiver.saveToDB();
+            session().currentCaregiver.saveToDB();
+            if (state != null) {
+                state.getCaregivers().add(username);
+            }
             System.out.println("Created user " + username);
+        } catch (IllegalStateException e) {
+            fail(e.getMessage());
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
-            e.printStackTrace();
+            fail("Failed to create user.");
+            recordError(e);
         }
     }
 
     private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+        if (state != null && state.getCaregivers().contains(username)) {
+            return true;
+        }
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Storage.caregivers().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            fail("Error occurred when checking username");
+            recordError(e);
         }
         return true;
     }
 
     private static void loginPatient(String[] tokens) {
         // login_patient <username> <password>
-        // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Login failed.");
-            return;
-        }
         String username = tokens[1];
         String password = tokens[2];
 
         Patient patient = null;
         try {
             patient = new Patient.PatientGetter(username, password).get();
+        } catch (IllegalStateException e) {
+            // the hashing pool is saturated
+            fail(e.getMessage());
+            return;
         } catch (SQLException e) {
-            System.out.println("Login failed.");
-            e.printStackTrace();
+            fail("Login failed.");
+            recordError(e);
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Login failed.");
+            fail("Login failed.");
         } else {
             System.out.println("Logged in as: " + username);
-            currentPatient = patient;
+            session().currentPatient = patient;
         }
     }
 
     private static void loginCaregiver(String[] tokens) {
         // login_caregiver <username> <password>
-        // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Login failed.");
-            return;
-        }
         String username = tokens[1];
         String password = tokens[2];
 
         Caregiver caregiver = null;
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
+        } catch (IllegalStateException e) {
+            // the hashing pool is saturated
+            fail(e.getMessage());
+            return;
         } catch (SQLException e) {
-            System.out.println("Login failed.");
-            e.printStackTrace();
+            fail("Login failed.");
+            recordError(e);
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            fail("Login failed.");
         } else {
             System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            session().currentCaregiver = caregiver;
         }
     }
 
     private static void searchCaregiverSchedule(String[] tokens) {
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
+        if (state != null) {
+            searchCaregiverScheduleInMemory(tokens);
             return;
         }
 
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
-            return;
-        }
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
         try {
-            String getCaregivers = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
             Date date = Date.valueOf(tokens[1]);
-            PreparedStatement statement = con.prepareStatement(getCaregivers);
-            statement.setDate(1, date);
-            ResultSet resultSet = statement.executeQuery();
-            ArrayList<String> usernames = new ArrayList<String>();
-            while (resultSet.next()) {
-                String username = resultSet.getString("Username");
-                System.out.print(username + " ");
-                usernames.add(username);
-            }
+            // the two reads are independent, so the vaccine query does not wait for the caregiver query
+            CompletableFuture<List<String>> caregivers =
+                    AsyncStorage.supply(() -> Storage.availabilities().findCaregivers(date));
+            CompletableFuture<Map<String, Integer>> vaccines = AsyncStorage.supply(() -> Storage.vaccines().findAll());
+            List<String> usernames = AsyncStorage.await(caregivers);
             if (usernames.size() == 0) {
-                System.out.println("Please try again!");
+                fail("Please try again!");
                 return;
             }
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            System.out.println("Please try again!");
-        }
-        try {
-            String getVaccines = "SELECT * FROM Vaccines";
-            PreparedStatement statement1 = con.prepareStatement(getVaccines);
-            ResultSet resultSet1 = statement1.executeQuery();
-            while (resultSet1.next()) {
-                String vaccine = resultSet1.getString("Name");
-                int doses = resultSet1.getInt("Doses");
-                System.out.print(vaccine + " " + doses + " ");
+            for (String username : usernames) {
+                System.out.print(username + " ");
+            }
+            for (Map.Entry<String, Integer> vaccine : AsyncStorage.await(vaccines).entrySet()) {
+                System.out.print(vaccine.getKey() + " " + vaccine.getValue() + " ");
             }
             System.out.println();
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.out.println("Please try again!");
-        } finally {
-            cm.closeConnection();
+            fail("Please try again!");
+            recordError(e);
         }
     }
 
-    private static void reserve(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void searchCaregiverScheduleInMemory(String[] tokens) {
+        Date date = Date.valueOf(tokens[1]);
+        List<String> usernames = state.getAvailableCaregivers(date);
+        if (usernames.size() == 0) {
+            fail("Please try again!");
             return;
         }
-        // checking if a caregiver is logged in instead of a patient
-        if(currentCaregiver != null){
-            System.out.println("Please login as a patient!");
-            return;
+        for (String username : usernames) {
+            System.out.print(username + " ");
         }
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
+        for (String vaccine : state.getAllDoses().keySet()) {
+            System.out.print(vaccine + " " + state.getDoses(vaccine) + " ");
         }
+        System.out.println();
+    }
+
+    private static void reserve(String[] tokens) {
         String date = tokens[1];
         Date d = Date.valueOf(date);
         String vaccineName = tokens[2];
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        // a client that may retry sends a key of its own with each attempt; a repeat gets the original booking
+        String requestKey = tokens.length == 4 ? tokens[3] : null;
+        if (requestKey != null && requestKey.length() > 64) {
+            fail("Please try again!");
+            return;
+        }
+        if (state != null) {
+            reserveWriteBehind(d, vaccineName, requestKey);
+            return;
+        }
+        String patientUser = session().currentPatient.getUsername();
+        if (requestKey != null) {
+            Appointment original = requests.get(patientUser, requestKey);
+            if (original != null) {
+                printRepeated(original, "Appointment ID: ");
+                return;
+            }
+        }
+        String lot = null;
         try {
-            Vaccine vaccine = new Vaccine.VaccineGetter(vaccineName).get();
-            int vaccineDoses = vaccine.getAvailableDoses();
-            if(vaccineDoses == 0){
-                System.out.println("Not enough available doses!");
+            lot = allocateLot(vaccineName, d);
+            Appointment appointment = Storage.appointments().reserve(d, vaccineName, patientUser, lot, requestKey);
+            if (appointment == null) {
+                // the key was used by an attempt that committed, which this instance may never have heard back from
+                lots.release(vaccineName, lot);
+                Appointment original = Storage.appointments().findByRequestKey(patientUser, requestKey);
+                if (original == null) {
+                    fail("Please try again!");
+                    return;
+                }
+                requests.put(patientUser, requestKey, original);
+                printRepeated(original, "Appointment ID: ");
                 return;
-            } else{
-                vaccine.decreaseAvailableDoses(1);
             }
+            if (requestKey != null) {
+                requests.put(patientUser, requestKey, appointment);
+            }
+            releaseUnrecorded(vaccineName, lot, appointment);
+            String caregiverUser = appointment.getCaregiverUser();
+            stats.recordBooking(d, vaccineName, caregiverUser);
+            calendar.remove(d, caregiverUser);
+            System.out.println("Appointment ID: " + appointment.getApptId() + ", Caregiver username: " + caregiverUser
+                    + lotSuffix(appointment.getLot()));
+            session().auditApptId = appointment.getApptId();
+        } catch (IllegalStateException e) {
+            lots.release(vaccineName, lot);
+            fail(e.getMessage());
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.out.println("Please try again!");
+            lots.release(vaccineName, lot);
+            fail("Please try again!");
+            recordError(e);
         }
-        try {
-            String getCareGivers = "SELECT DISTINCT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
-            PreparedStatement statement = con.prepareStatement(getCareGivers);
-            statement.setDate(1, d);
-            ResultSet resultSet = statement.executeQuery();
-            ArrayList<String> usernames = new ArrayList<String>();
-            while(resultSet.next()){
-                String username = resultSet.getString("Username");
-                usernames.add(username);
+    }
+
+    private static void reserveWriteBehind(Date d, String vaccineName, String requestKey) {
+        String patientUser = session().currentPatient.getUsername();
+        String caregiverUser;
+        String lot;
+        JournalRecord record;
+        if (requestKey != null && requests.get(patientUser, requestKey) == null) {
+            // a key pushed out of the cache, or used before a restart, was written with its appointment once flushed
+            try {
+                Appointment original = Storage.appointments().findByRequestKey(patientUser, requestKey);
+                if (original != null) {
+                    requests.put(patientUser, requestKey, original);
+                    printRepeated(original, "Appointment ID: ");
+                    return;
+                }
+            } catch (SQLException e) {
+                fail("Please try again!");
+                recordError(e);
+                return;
             }
-            if(usernames.size() == 0){
-                System.out.println("No Caregiver is available!");
+        }
+        // the snapshot writer takes the same lock, so it never sees a reservation that is not yet journalled
+        synchronized (state) {
+            // checked under the lock, so two attempts with the same key cannot both reserve
+            Appointment original = requestKey == null ? null : requests.get(patientUser, requestKey);
+            if (original != null) {
+                printRepeated(original, "Reservation ID: ");
                 return;
             }
-            String CaregiverUser = usernames.get(0);
-            String addAppointment = "INSERT INTO Appointments VALUES (? , ?, ?, ?)";
-            PreparedStatement statementC = con.prepareStatement(addAppointment);
-            statementC.setString(1, CaregiverUser);
-            statementC.setString(2, currentPatient.getUsername());
-            statementC.setString(3, vaccineName);
-            statementC.setDate(4, d);
-            statementC.executeUpdate();
-            //removing availability
-            String deleteAvailability = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
-            PreparedStatement statementD = con.prepareStatement(deleteAvailability);
-            statementD.setDate(1, d);
-            statementD.setString(2,CaregiverUser);
-            statementD.executeUpdate();
-            //printing
-            String retrieveAppointmentID = "SELECT ApptId FROM Appointments WHERE ApptTime = ? AND CaregiverUser = ? ";
-            PreparedStatement statementR = con.prepareStatement(retrieveAppointmentID);
-            statementR.setDate(1, d);
-            statementR.setString(2,CaregiverUser);
-            ResultSet resultSet2 = statementR.executeQuery();
-            while(resultSet2.next()) {
-                int ApptId = resultSet2.getInt("ApptId");
-                System.out.println("Appointment ID: " + ApptId + ", Caregiver username: " + CaregiverUser);
+            try {
+                lot = allocateLot(vaccineName, d);
+            } catch (IllegalStateException e) {
+                fail(e.getMessage());
+                return;
+            }
+            try {
+                caregiverUser = state.reserve(d, vaccineName);
+            } catch (IllegalStateException e) {
+                lots.release(vaccineName, lot);
+                fail(e.getMessage());
+                return;
+            }
+            try {
+                record = appendToJournal(caregiverUser, patientUser, vaccineName, d, lot, requestKey);
+            } catch (IOException e) {
+                // nothing was acknowledged, so hand the dose, the lot dose and the slot back
+                state.addDoses(vaccineName, 1);
+                state.addAvailability(d, caregiverUser);
+                lots.release(vaccineName, lot);
+                fail("Please try again!");
+                recordError(e);
+                return;
+            }
+            if (requestKey != null) {
+                requests.put(patientUser, requestKey,
+                        new Appointment((int) record.getSeq(), caregiverUser, patientUser, vaccineName, d, lot));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            System.out.println("Please try again!");
-        } finally {
-            cm.closeConnection();
         }
+        flusher.submit(record);
+        calendar.remove(d, caregiverUser);
+        stats.recordBooking(d, vaccineName, caregiverUser);
+        session().auditNote = "reservation=" + record.getSeq() + " caregiver=" + caregiverUser;
+        // the database assigns the appointment ID once the reservation is written in the background
+        System.out.println("Reservation ID: " + record.getSeq() + ", Caregiver username: " + caregiverUser
+                + lotSuffix(lot));
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+    private static void reserveSeries(String[] tokens) {
+        // reserve_series <date> <vaccine> <interval-min> <interval-max>, the interval in days after the first dose
+        Date d;
+        int minDays;
+        int maxDays;
+        try {
+            d = Date.valueOf(tokens[1]);
+            minDays = Integer.parseInt(tokens[3]);
+            maxDays = Integer.parseInt(tokens[4]);
+        } catch (IllegalArgumentException e) {
+            fail("Please try again!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
+        if (minDays < 1 || maxDays < minDays) {
+            fail("Please enter an interval of at least one day, with the minimum no larger than the maximum!");
+            return;
+        }
+        String vaccineName = tokens[2];
+        Date secondFrom = Date.valueOf(d.toLocalDate().plusDays(minDays));
+        Date secondTo = Date.valueOf(d.toLocalDate().plusDays(maxDays));
+        if (state != null) {
+            reserveSeriesWriteBehind(d, secondFrom, secondTo, vaccineName);
+            return;
+        }
+        // the second dose's day is not known yet, so its lot has to be good until the last day it could be
+        String firstLot = null;
+        String secondLot = null;
+        try {
+            firstLot = allocateLot(vaccineName, d);
+            secondLot = allocateLot(vaccineName, secondTo);
+            List<Appointment> series = Storage.appointments().reserveSeries(d, secondFrom, secondTo, vaccineName,
+                    session().currentPatient.getUsername(), firstLot, secondLot);
+            releaseUnrecorded(vaccineName, firstLot, series.get(0));
+            releaseUnrecorded(vaccineName, secondLot, series.get(1));
+            for (Appointment appointment : series) {
+                stats.recordBooking(appointment.getApptTime(), vaccineName, appointment.getCaregiverUser());
+                calendar.remove(appointment.getApptTime(), appointment.getCaregiverUser());
+                System.out.println("Appointment ID: " + appointment.getApptId() + ", Caregiver username: "
+                        + appointment.getCaregiverUser() + ", Date: " + appointment.getApptTime()
+                        + lotSuffix(appointment.getLot()));
+            }
+            session().auditApptId = series.get(0).getApptId();
+            session().auditNote = "second=" + series.get(1).getApptId() + " date=" + series.get(1).getApptTime();
+        } catch (IllegalStateException e) {
+            lots.release(vaccineName, firstLot);
+            lots.release(vaccineName, secondLot);
+            fail(e.getMessage());
+        } catch (SQLException e) {
+            lots.release(vaccineName, firstLot);
+            lots.release(vaccineName, secondLot);
+            fail("Please try again!");
+            recordError(e);
+        }
+    }
+
+    private static void reserveSeriesWriteBehind(Date d, Date secondFrom, Date secondTo, String vaccineName) {
+        List<Appointment> series;
+        List<String> seriesLots = new ArrayList<>();
+        List<JournalRecord> records = new ArrayList<>();
+        synchronized (state) {
+            try {
+                series = state.reserveSeries(d, secondFrom, secondTo, vaccineName,
+                        session().currentPatient.getUsername());
+            } catch (IllegalStateException e) {
+                fail(e.getMessage());
+                return;
+            }
+            try {
+                for (Appointment appointment : series) {
+                    seriesLots.add(allocateLot(vaccineName, appointment.getApptTime()));
+                }
+            } catch (IllegalStateException e) {
+                for (int i = 0; i < series.size(); i++) {
+                    state.addDoses(vaccineName, 1);
+                    state.addAvailability(series.get(i).getApptTime(), series.get(i).getCaregiverUser());
+                    if (i < seriesLots.size()) {
+                        lots.release(vaccineName, seriesLots.get(i));
+                    }
+                }
+                fail(e.getMessage());
+                return;
+            }
+            try {
+                for (Appointment appointment : series) {
+                    records.add(appendToJournal(appointment.getCaregiverUser(), appointment.getPatientUser(),
+                            vaccineName, appointment.getApptTime(), seriesLots.get(records.size()), null));
+                }
+            } catch (IOException e) {
+                // hand back whatever was not journalled; a journalled first dose stays booked and is reported
+                for (int i = records.size(); i < series.size(); i++) {
+                    state.addDoses(vaccineName, 1);
+                    state.addAvailability(series.get(i).getApptTime(), series.get(i).getCaregiverUser());
+                    lots.release(vaccineName, seriesLots.get(i));
+                }
+                recordError(e);
+                series = series.subList(0, records.size());
+            }
+        }
+        for (int i = 0; i < records.size(); i++) {
+            Appointment appointment = series.get(i);
+            flusher.submit(records.get(i));
+            calendar.remove(appointment.getApptTime(), appointment.getCaregiverUser());
+            stats.recordBooking(appointment.getApptTime(), vaccineName, appointment.getCaregiverUser());
+            System.out.println("Reservation ID: " + records.get(i).getSeq() + ", Caregiver username: "
+                    + appointment.getCaregiverUser() + ", Date: " + appointment.getApptTime()
+                    + lotSuffix(seriesLots.get(i)));
+        }
+        if (records.size() < 2) {
+            fail(records.isEmpty() ? "Please try again!" : "Could not book the second dose, please try again!");
             return;
         }
+        session().auditNote = "reservation=" + records.get(0).getSeq() + " second=" + records.get(1).getSeq();
+    }
+
+    private static JournalRecord appendToJournal(String caregiverUser, String patientUser, String vaccineName, Date d,
+                                                 String lot, String requestKey) throws IOException {
+        try {
+            return journal.append(caregiverUser, patientUser, vaccineName, d, lot, requestKey);
+        } catch (IOException e) {
+            // the journal is full: wait for the background writer to catch up, which rewinds it. The state lock is
+            // held meanwhile, so the wait is bounded and skipped when the writer has stopped.
+            try {
+                if (!flusher.awaitFlushed(journal.getLastSeq(), JOURNAL_FULL_WAIT_MS)) {
+                    throw new IOException("Reservation journal is full and the background writer is not draining it",
+                            e);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+            return journal.append(caregiverUser, patientUser, vaccineName, d, lot, requestKey);
+        }
+    }
+
+    // Answers a repeated reserve like the attempt that booked it; nothing is booked or counted again
+    private static void printRepeated(Appointment original, String label) {
+        session().auditNote = "repeated=" + original.getApptId();
+        System.out.println(label + original.getApptId() + ", Caregiver username: " + original.getCaregiverUser()
+                + lotSuffix(original.getLot()));
+    }
+
+    private static String lotSuffix(String lot) {
+        return lot == null ? "" : ", Lot: " + lot;
+    }
+
+    private static void uploadAvailability(String[] tokens) {
+        // upload_availability <date>
         String date = tokens[1];
         try {
             Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
+            session().currentCaregiver.uploadAvailability(d);
+            if (state != null) {
+                state.addAvailability(d, session().currentCaregiver.getUsername());
+            }
+            calendar.add(d, session().currentCaregiver.getUsername());
             System.out.println("Availability uploaded!");
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            fail("Please enter a valid date!");
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
-            e.printStackTrace();
+            fail("Error occurred when uploading availability");
+            recordError(e);
         }
     }
 
-    private static void cancel(String[] tokens) {
-        // TODO: Extra credit
-
-    }
-
     private static void addDoses(String[] tokens) {
-        // add_doses <vaccine> <number>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
+        // add_doses <vaccine> <number> [<lot> <expiry>]
+        if (tokens.length == 4) {
+            fail("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
         int doses = Integer.parseInt(tokens[2]);
+        if (tokens.length == 5) {
+            addLotDoses(vaccineName, doses, tokens[3], tokens[4]);
+            return;
+        }
         Vaccine vaccine = null;
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
-            e.printStackTrace();
+            fail("Error occurred when adding doses");
+            recordError(e);
         }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
-        //          table
+        // if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines table
         if (vaccine == null) {
             try {
                 vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
                 vaccine.saveToDB();
+                if (state != null) {
+                    state.addDoses(vaccineName, doses);
+                }
+                stats.recordDosesAdded(new Date(System.currentTimeMillis()), vaccineName, doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                fail("Error occurred when adding doses");
+                recordError(e);
             }
         } else {
             // if the vaccine is not null, meaning that the vaccine already exists in our table
             try {
                 vaccine.increaseAvailableDoses(doses);
+                if (state != null) {
+                    state.addDoses(vaccineName, doses);
+                }
+                stats.recordDosesAdded(new Date(System.currentTimeMillis()), vaccineName, doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                fail("Error occurred when adding doses");
+                recordError(e);
             }
         }
         System.out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void addLotDoses(String vaccineName, int doses, String lot, String expiryDate) {
+        Date expiry;
+        try {
+            expiry = Date.valueOf(expiryDate);
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
             return;
         }
-        if (tokens.length != 1) {
-            System.out.println("Please try again!");
+        if (doses <= 0 || lot.length() > 64) {
+            fail("Please try again!");
             return;
         }
-        if(currentCaregiver != null){
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-            String getAppts = "SELECT ApptId, VaccineName, ApptTime, PatientUser FROM Appointments WHERE CaregiverUser = ? ORDER BY ApptId";
-            try{
-                PreparedStatement statement = con.prepareStatement(getAppts);
-                statement.setString(1, currentCaregiver.getUsername());
-                ResultSet resultSet = statement.executeQuery();
-                while(resultSet.next()){
-                    int ApptId = resultSet.getInt("ApptId");
-                    String VaccineName = resultSet.getString("VaccineName");
-                    Date ApptTime = resultSet.getDate("ApptTime");
-                    String PatientUser = resultSet.getString("PatientUser");
-                    System.out.println(ApptId + " " + VaccineName + " " + ApptTime + " " + PatientUser);
+        if (expiry.toLocalDate().isBefore(LocalDate.now())) {
+            fail("Lot " + lot + " has already expired!");
+            return;
+        }
+        try {
+            if (new Vaccine.VaccineGetter(vaccineName).get() == null) {
+                new Vaccine.VaccineBuilder(vaccineName, 0).build().saveToDB();
+            }
+            // adds to Vaccines.Doses as well, so reserve's dose check needs no change
+            Storage.vaccines().addLot(vaccineName, lot, expiry, doses);
+            lots.add(vaccineName, lot, expiry, doses);
+            if (state != null) {
+                state.addDoses(vaccineName, doses);
+            }
+            stats.recordDosesAdded(new Date(System.currentTimeMillis()), vaccineName, doses);
+            session().auditNote = "lot=" + lot + " expiry=" + expiry;
+            System.out.println("Doses updated!");
+        } catch (IllegalStateException e) {
+            fail(e.getMessage());
+        } catch (SQLException e) {
+            fail("Error occurred when adding doses");
+            recordError(e);
+        }
+    }
+
+    private static void planEvent(String[] tokens) {
+        // plan_event <requests-file>, one "<patient> <vaccine> <from> <to>" line per patient
+        List<PlanRequest> requests = new ArrayList<>();
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(tokens[1]));
+            for (int i = 0; i < lines.size(); i++) {
+                try {
+                    PlanRequest request = PlanRequest.parse(i + 1, lines.get(i));
+                    if (request != null) {
+                        requests.add(request);
+                    }
+                } catch (IllegalArgumentException e) {
+                    fail("Invalid request on line " + (i + 1) + ": " + e.getMessage());
+                    return;
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
-                System.out.println("Please try again!");
-            } finally {
-                cm.closeConnection();
             }
+        } catch (IOException e) {
+            fail("Could not read " + tokens[1] + "!");
+            return;
         }
-        else if(currentPatient != null){
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-            String getAppts = "SELECT ApptId, VaccineName, ApptTime, CaregiverUser FROM Appointments WHERE PatientUser = ? ORDER BY ApptId";
-            try {
-                PreparedStatement statement = con.prepareStatement(getAppts);
-                statement.setString(1, currentPatient.getUsername());
-                ResultSet resultSet = statement.executeQuery();
-                while(resultSet.next()){
-                    int ApptId = resultSet.getInt("ApptId");
-                    String VaccineName = resultSet.getString("VaccineName");
-                    Date ApptTime = resultSet.getDate("ApptTime");
-                    String CaregiverUser = resultSet.getString("CaregiverUser");
-
-                    System.out.println(ApptId + " " + VaccineName + " " + ApptTime + " " + CaregiverUser);
+        if (requests.isEmpty()) {
+            fail("No requests in " + tokens[1] + "!");
+            return;
+        }
+        Date from = requests.stream().map(PlanRequest::getFrom).min(Date::compareTo).get();
+        Date to = requests.stream().map(PlanRequest::getTo).max(Date::compareTo).get();
+        Set<String> usernames = new HashSet<>();
+        requests.forEach(r -> usernames.add(r.getPatientUser()));
+
+        EventPlan plan;
+        List<Appointment> booked;
+        try {
+            CompletableFuture<Set<String>> patients =
+                    AsyncStorage.supply(() -> Storage.patients().findExisting(usernames));
+            if (state == null) {
+                CompletableFuture<Map<Date, List<String>>> slots =
+                        AsyncStorage.supply(() -> Storage.availabilities().findRange(from, to));
+                CompletableFuture<Map<String, Integer>> doses = AsyncStorage.supply(() -> Storage.vaccines().findAll());
+                plan = new EventPlanner(AsyncStorage.await(slots), AsyncStorage.await(doses))
+                        .plan(requests, AsyncStorage.await(patients));
+                booked = reserveAllWithLots(plan.getAppointments());
+            } else {
+                // plan against the in-memory state, which already reflects journalled reservations the database
+                // has not seen yet, and keep reserve out until the plan is booked
+                Set<String> knownPatients = AsyncStorage.await(patients);
+                synchronized (state) {
+                    Map<Date, Collection<String>> slots = new HashMap<>();
+                    state.getAllAvailabilities().forEach((d, caregiverUsers) -> {
+                        if (!d.before(from) && !d.after(to)) {
+                            slots.put(d, caregiverUsers);
+                        }
+                    });
+                    plan = new EventPlanner(slots, state.getAllDoses()).plan(requests, knownPatients);
+                    booked = reserveAllWithLots(plan.getAppointments());
+                    for (Appointment appointment : booked) {
+                        state.apply(appointment.getApptTime(), appointment.getVaccineName(),
+                                appointment.getCaregiverUser());
+                    }
                 }
+            }
+        } catch (IllegalStateException e) {
+            fail(e.getMessage());
+            return;
+        } catch (SQLException e) {
+            fail("Please try again!");
+            recordError(e);
+            return;
+        }
 
-            } catch (SQLException e) {
-                e.printStackTrace();
-                System.out.println("Please try again!");
-            } finally {
-                cm.closeConnection();
+        for (Appointment appointment : booked) {
+            stats.recordBooking(appointment.getApptTime(), appointment.getVaccineName(),
+                    appointment.getCaregiverUser());
+            calendar.remove(appointment.getApptTime(), appointment.getCaregiverUser());
+        }
+
+        int offered = 0;
+        for (Map.Entry<Date, Integer> day : plan.getOffered().entrySet()) {
+            int used = plan.getUsed().get(day.getKey());
+            offered += day.getValue();
+            System.out.println(day.getKey() + " " + used + "/" + day.getValue() + " caregiver slots used");
+        }
+        for (Map.Entry<PlanRequest, String> request : plan.getUnplaced().entrySet()) {
+            System.out.println("Unplaced: line " + request.getKey().getLine() + " "
+                    + request.getKey().getPatientUser() + " (" + request.getValue() + ")");
+        }
+        System.out.println("Placed " + booked.size() + " of " + requests.size() + " patients, using " + booked.size()
+                + " of " + offered + " caregiver slots (" + (offered == 0 ? 0 : booked.size() * 100 / offered) + "%)");
+        session().auditNote = "placed=" + booked.size() + " unplaced=" + plan.getUnplaced().size();
+    }
+
+    private static void archiveBefore(String[] tokens) {
+        // archive_before <date>
+        Date before;
+        try {
+            before = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+            return;
+        }
+        // only completed appointments are archived
+        if (before.toLocalDate().isAfter(LocalDate.now())) {
+            fail("Only past appointments can be archived!");
+            return;
+        }
+        try {
+            int moved = moveToArchive(before);
+            session().auditNote = "archived=" + moved;
+            System.out.println("Archived " + moved + " appointments");
+        } catch (IOException e) {
+            fail("Error occurred when writing the archive");
+            recordError(e);
+        } catch (SQLException e) {
+            fail("Please try again!");
+            recordError(e);
+        }
+    }
+
+    // Moves the appointments dated before the given day to the archive, a batch at a time. Each batch is on disk
+    // before it is deleted from the hot table; if a run stops in between, the next one archives the batch again
+    // and lookups skip the copy. Returns the number of appointments moved.
+    private static int moveToArchive(Date before) throws SQLException, IOException {
+        // the scheduled run and the command never interleave their batches
+        synchronized (archive) {
+            int moved = 0;
+            while (true) {
+                List<Appointment> batch = Storage.appointments().findBefore(before, archiveBatch);
+                if (batch.isEmpty()) {
+                    return moved;
+                }
+                archive.append(batch);
+                List<Integer> apptIds = new ArrayList<>();
+                for (Appointment appointment : batch) {
+                    apptIds.add(appointment.getApptId());
+                }
+                Storage.appointments().deleteAll(apptIds);
+                moved += batch.size();
             }
         }
-        else{
-            System.out.println("Please try again!");
+    }
+
+    // Gives back a lot dose the database did not record, because another instance had drained the lot first
+    private static void releaseUnrecorded(String vaccineName, String allocated, Appointment booked) {
+        if (allocated != null && booked.getLot() == null) {
+            lots.release(vaccineName, allocated);
         }
     }
 
-    private static void logout(String[] tokens) {
-            if (tokens.length != 1) {
-                System.out.println("Please try again!");
+    // Takes a dose from the earliest-expiring lot still good on d. Null means the vaccine has no lot doses at all;
+    // if it has some but all of them expire before d, the doses counted for the vaccine are expired stock and the
+    // booking is refused.
+    private static String allocateLot(String vaccineName, Date d) {
+        String lot = lots.allocate(vaccineName, d);
+        if (lot == null && lots.hasDoses(vaccineName)) {
+            throw new IllegalStateException("No doses left that are still good on " + d + "!");
+        }
+        return lot;
+    }
+
+    // Draws a lot dose for each planned appointment and books them all, handing the lot doses back on failure
+    private static List<Appointment> reserveAllWithLots(List<Appointment> planned) throws SQLException {
+        List<Appointment> withLots = new ArrayList<>();
+        boolean booked = false;
+        try {
+            for (Appointment appointment : planned) {
+                withLots.add(new Appointment(0, appointment.getCaregiverUser(), appointment.getPatientUser(),
+                        appointment.getVaccineName(), appointment.getApptTime(),
+                        allocateLot(appointment.getVaccineName(), appointment.getApptTime())));
+            }
+            List<Appointment> appointments = Storage.appointments().reserveAll(withLots);
+            booked = true;
+            for (int i = 0; i < appointments.size(); i++) {
+                releaseUnrecorded(withLots.get(i).getVaccineName(), withLots.get(i).getLot(), appointments.get(i));
+            }
+            return appointments;
+        } finally {
+            if (!booked) {
+                withLots.forEach(appointment -> lots.release(appointment.getVaccineName(), appointment.getLot()));
+            }
+        }
+    }
+
+    private static void showAppointments(String[] tokens) {
+        // show_appointments [<from> <to>]
+        if (tokens.length == 2) {
+            fail("Please try again!");
+            return;
+        }
+        Date from = null;
+        Date to = null;
+        if (tokens.length == 3) {
+            try {
+                from = Date.valueOf(tokens[1]);
+                to = Date.valueOf(tokens[2]);
+            } catch (IllegalArgumentException e) {
+                fail("Please enter a valid date!");
                 return;
             }
-            if(currentCaregiver== null && currentPatient == null){
-                System.out.println("Please login first!");
+            if (from.after(to)) {
+                fail("Please try again!");
                 return;
             }
-            if(currentCaregiver != null){
-                currentCaregiver = null;
-                System.out.println("Successfully logged out!");
-            } else{
-                currentPatient = null;
-                System.out.println("Successfully logged out!");
+        }
+        try {
+            if (session().currentCaregiver != null) {
+                String caregiverUser = session().currentCaregiver.getUsername();
+                List<Appointment> appointments = Storage.appointments().findByCaregiver(caregiverUser);
+                if (from != null) {
+                    appointments = withArchived(appointments, archive.findByCaregiver(caregiverUser, from, to),
+                            from, to);
+                }
+                for (Appointment appointment : appointments) {
+                    System.out.println(appointment.getApptId() + " " + appointment.getVaccineName() + " "
+                            + appointment.getApptTime() + " " + appointment.getPatientUser()
+                            + (appointment.getLot() == null ? "" : " " + appointment.getLot()));
+                }
+            } else {
+                String patientUser = session().currentPatient.getUsername();
+                List<Appointment> appointments = Storage.appointments().findByPatient(patientUser);
+                if (from != null) {
+                    appointments = withArchived(appointments, archive.findByPatient(patientUser, from, to),
+                            from, to);
+                }
+                for (Appointment appointment : appointments) {
+                    System.out.println(appointment.getApptId() + " " + appointment.getVaccineName() + " "
+                            + appointment.getApptTime() + " " + appointment.getCaregiverUser()
+                            + (appointment.getLot() == null ? "" : " " + appointment.getLot()));
+                }
+            }
+        } catch (IOException e) {
+            fail("Error occurred when reading archived appointments");
+            recordError(e);
+        } catch (SQLException e) {
+            fail("Please try again!");
+            recordError(e);
+        }
+    }
+
+    // The hot appointments dated from..to merged with the archived ones, by ApptID; an appointment still in both
+    // (archived by a run that stopped before deleting it) is taken from the hot table
+    private static List<Appointment> withArchived(List<Appointment> hot, List<Appointment> archived, Date from,
+                                                  Date to) {
+        Map<Integer, Appointment> merged = new TreeMap<>();
+        for (Appointment appointment : archived) {
+            merged.put(appointment.getApptId(), appointment);
+        }
+        for (Appointment appointment : hot) {
+            if (!appointment.getApptTime().before(from) && !appointment.getApptTime().after(to)) {
+                merged.put(appointment.getApptId(), appointment);
             }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    private static void statsBookings(String[] tokens) {
+        // stats_bookings <from> <to>
+        Date from;
+        Date to;
+        try {
+            from = Date.valueOf(tokens[1]);
+            to = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            fail("Please enter a valid date!");
+            return;
+        }
+        if (from.after(to)) {
+            fail("Please try again!");
+            return;
+        }
+        // one line per day, counter kind and name, e.g. "2021-06-01 booked Pfizer 3"
+        for (Map.Entry<Date, Map<String, Map<String, LongAdder>>> day : stats.range(from, to).entrySet()) {
+            for (String kind : new String[]{BookingStats.BOOKED, BookingStats.CAREGIVER, BookingStats.ADDED}) {
+                Map<String, LongAdder> counters = day.getValue().get(kind);
+                if (counters == null) {
+                    continue;
+                }
+                for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+                    System.out.println(day.getKey() + " " + kind + " " + counter.getKey() + " "
+                            + counter.getValue().sum());
+                }
+            }
+        }
+    }
+
+    private static void calendar(String[] tokens) {
+        // calendar <yyyy-mm> [caregiver ...]
+        YearMonth month;
+        try {
+            month = YearMonth.parse(tokens[1]);
+        } catch (DateTimeParseException e) {
+            fail("Please enter a valid date!");
+            return;
+        }
+        // no caregivers: days anyone is free; otherwise days on which all of the named caregivers are free
+        int mask;
+        if (tokens.length == 2) {
+            mask = calendar.anyAvailable(month);
+        } else {
+            mask = calendar.allAvailable(month, Arrays.asList(tokens).subList(2, tokens.length));
+        }
+        List<LocalDate> days = AvailabilityCalendar.days(month, mask);
+        if (days.size() == 0) {
+            fail("No Caregiver is available!");
+            return;
+        }
+        for (LocalDate day : days) {
+            System.out.print(day + " ");
+        }
+        System.out.println();
+    }
+
+    private static void logout(String[] tokens) {
+        if (session().currentCaregiver != null) {
+            session().currentCaregiver = null;
+        } else {
+            session().currentPatient = null;
+        }
+        System.out.println("Successfully logged out!");
     }
 }
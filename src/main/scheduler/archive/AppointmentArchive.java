@@ -0,0 +1,344 @@
+package scheduler.archive;
+
+import scheduler.model.Appointment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Append-only local archive of past appointments, one file per month (appointments-yyyy-mm.arc). Each call to
+// append adds one block per month: [int magic][int rows][int length of each of the 6 columns][int crc32 of the
+// columns] followed by the columns, each deflated on its own. The columns are ApptID (varint deltas, ascending),
+// day of month (one byte), caregiver, patient and vaccine (dictionary of strings then a varint index per row)
+// and lot (the same, index 0 meaning no lot). A lookup inflates only the username column it filters on, and the
+// rest only for blocks with a match. A torn block at the end of a file is ignored and cut off by the next append.
+public class AppointmentArchive {
+    private static final int MAGIC = 0x56534131;
+    private static final int COLUMNS = 6;
+    private static final int HEADER_SIZE = 4 + 4 + 4 * COLUMNS + 4;
+    private static final int ID = 0;
+    private static final int DAY = 1;
+    private static final int CAREGIVER = 2;
+    private static final int PATIENT = 3;
+    private static final int VACCINE = 4;
+    private static final int LOT = 5;
+
+    private final Path dir;
+    // length of each file up to the end of its last good block, as of this instance's last append to it, so a
+    // file is read back in full only once; after that only bytes someone else added are checked
+    private final Map<Path, Long> validLengths = new HashMap<>();
+
+    public AppointmentArchive(Path dir) {
+        this.dir = dir;
+    }
+
+    // Appends the appointments to their months' files and forces them to disk before returning, so the caller
+    // may delete them from the hot table
+    public synchronized void append(List<Appointment> appointments) throws IOException {
+        Map<YearMonth, List<Appointment>> byMonth = new TreeMap<>();
+        for (Appointment appointment : appointments) {
+            byMonth.computeIfAbsent(YearMonth.from(appointment.getApptTime().toLocalDate()),
+                    k -> new ArrayList<>()).add(appointment);
+        }
+        Files.createDirectories(dir);
+        for (Map.Entry<YearMonth, List<Appointment>> month : byMonth.entrySet()) {
+            byte[] block = encode(month.getValue());
+            Path file = file(month.getKey());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                Long known = validLengths.get(file);
+                long start = known != null && known <= channel.size() ? known : 0;
+                long end = start + validLength(read(channel, start));
+                channel.truncate(end);
+                channel.position(end);
+                ByteBuffer buffer = ByteBuffer.wrap(block);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+                validLengths.put(file, end + block.length);
+            }
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - position));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.array();
+    }
+
+    public List<Appointment> findByCaregiver(String caregiverUser, Date from, Date to) throws IOException {
+        return find(CAREGIVER, caregiverUser, from, to);
+    }
+
+    public List<Appointment> findByPatient(String patientUser, Date from, Date to) throws IOException {
+        return find(PATIENT, patientUser, from, to);
+    }
+
+    // Appointments of the user dated from..to (both inclusive), lowest ApptID first. An appointment archived
+    // twice, because a run stopped between appending and deleting it, is returned once.
+    private List<Appointment> find(int column, String username, Date from, Date to) throws IOException {
+        List<Appointment> found = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        YearMonth last = YearMonth.from(to.toLocalDate());
+        for (YearMonth month = YearMonth.from(from.toLocalDate()); !month.isAfter(last); month = month.plusMonths(1)) {
+            Path file = file(month);
+            if (!Files.exists(file)) {
+                continue;
+            }
+            ByteBuffer blocks = ByteBuffer.wrap(Files.readAllBytes(file));
+            while (readHeader(blocks)) {
+                int rows = blocks.getInt(blocks.position() + 4);
+                int[] offsets = offsets(blocks);
+                List<String> users = strings(inflate(blocks, offsets, column), rows);
+                List<Integer> matches = new ArrayList<>();
+                for (int i = 0; i < rows; i++) {
+                    if (users.get(i).equals(username)) {
+                        matches.add(i);
+                    }
+                }
+                if (!matches.isEmpty()) {
+                    List<Appointment> block = decode(blocks, offsets, rows, month);
+                    for (int i : matches) {
+                        Appointment appointment = block.get(i);
+                        if (!appointment.getApptTime().before(from) && !appointment.getApptTime().after(to)
+                                && seen.add(appointment.getApptId())) {
+                            found.add(appointment);
+                        }
+                    }
+                }
+                blocks.position(offsets[COLUMNS]);
+            }
+        }
+        found.sort(Comparator.comparingInt(Appointment::getApptId));
+        return found;
+    }
+
+    private Path file(YearMonth month) {
+        return dir.resolve("appointments-" + month + ".arc");
+    }
+
+    private static byte[] encode(List<Appointment> appointments) {
+        List<Appointment> rows = new ArrayList<>(appointments);
+        rows.sort(Comparator.comparingInt(Appointment::getApptId));
+        ByteArrayOutputStream ids = new ByteArrayOutputStream();
+        ByteArrayOutputStream days = new ByteArrayOutputStream();
+        Dictionary caregivers = new Dictionary(false);
+        Dictionary patients = new Dictionary(false);
+        Dictionary vaccines = new Dictionary(false);
+        Dictionary lots = new Dictionary(true);
+        int previous = 0;
+        for (Appointment appointment : rows) {
+            writeVarint(ids, appointment.getApptId() - previous);
+            previous = appointment.getApptId();
+            days.write(appointment.getApptTime().toLocalDate().getDayOfMonth());
+            caregivers.add(appointment.getCaregiverUser());
+            patients.add(appointment.getPatientUser());
+            vaccines.add(appointment.getVaccineName());
+            lots.add(appointment.getLot());
+        }
+        byte[][] columns = {deflate(ids.toByteArray()), deflate(days.toByteArray()), deflate(caregivers.toBytes()),
+                deflate(patients.toBytes()), deflate(vaccines.toBytes()), deflate(lots.toBytes())};
+        int length = 0;
+        CRC32 crc = new CRC32();
+        for (byte[] column : columns) {
+            length += column.length;
+            crc.update(column);
+        }
+        ByteBuffer block = ByteBuffer.allocate(HEADER_SIZE + length);
+        block.putInt(MAGIC).putInt(rows.size());
+        for (byte[] column : columns) {
+            block.putInt(column.length);
+        }
+        block.putInt((int) crc.getValue());
+        for (byte[] column : columns) {
+            block.put(column);
+        }
+        return block.array();
+    }
+
+    private static List<Appointment> decode(ByteBuffer blocks, int[] offsets, int rows, YearMonth month)
+            throws IOException {
+        ByteBuffer ids = ByteBuffer.wrap(inflate(blocks, offsets, ID));
+        byte[] days = inflate(blocks, offsets, DAY);
+        List<String> caregivers = strings(inflate(blocks, offsets, CAREGIVER), rows);
+        List<String> patients = strings(inflate(blocks, offsets, PATIENT), rows);
+        List<String> vaccines = strings(inflate(blocks, offsets, VACCINE), rows);
+        List<String> lots = strings(inflate(blocks, offsets, LOT), rows);
+        List<Appointment> appointments = new ArrayList<>();
+        int apptId = 0;
+        for (int i = 0; i < rows; i++) {
+            apptId += readVarint(ids);
+            appointments.add(new Appointment(apptId, caregivers.get(i), patients.get(i), vaccines.get(i),
+                    Date.valueOf(month.atDay(days[i])), lots.get(i)));
+        }
+        return appointments;
+    }
+
+    // Checks the block at the buffer's position; false at the end of the file or at a torn block
+    private static boolean readHeader(ByteBuffer blocks) {
+        int start = blocks.position();
+        if (blocks.remaining() < HEADER_SIZE || blocks.getInt(start) != MAGIC) {
+            return false;
+        }
+        long length = 0;
+        for (int c = 0; c < COLUMNS; c++) {
+            length += blocks.getInt(start + 8 + 4 * c);
+        }
+        if (length < 0 || length > blocks.remaining() - HEADER_SIZE) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(blocks.array(), start + HEADER_SIZE, (int) length);
+        return (int) crc.getValue() == blocks.getInt(start + 8 + 4 * COLUMNS);
+    }
+
+    // Start of each column of the block at the buffer's position, and the end of the block last
+    private static int[] offsets(ByteBuffer blocks) {
+        int start = blocks.position();
+        int[] offsets = new int[COLUMNS + 1];
+        offsets[0] = start + HEADER_SIZE;
+        for (int c = 0; c < COLUMNS; c++) {
+            offsets[c + 1] = offsets[c] + blocks.getInt(start + 8 + 4 * c);
+        }
+        return offsets;
+    }
+
+    private static long validLength(byte[] bytes) {
+        ByteBuffer blocks = ByteBuffer.wrap(bytes);
+        while (readHeader(blocks)) {
+            blocks.position(offsets(blocks)[COLUMNS]);
+        }
+        return blocks.position();
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(ByteBuffer blocks, int[] offsets, int column) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(blocks.array(), offsets[column], offsets[column + 1] - offsets[column]);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated archive column");
+                }
+                out.write(chunk, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    // Dictionary-encoded string column: a varint flag set when index 0 stands for null, the varint entry count,
+    // entries as varint length and UTF-8 bytes, then a varint entry index per row
+    private static class Dictionary {
+        private final Map<String, Integer> entries = new LinkedHashMap<>();
+        private final ByteArrayOutputStream indexes = new ByteArrayOutputStream();
+        private final boolean nullable;
+
+        private Dictionary(boolean nullable) {
+            this.nullable = nullable;
+        }
+
+        private void add(String value) {
+            if (value == null) {
+                writeVarint(indexes, 0);
+                return;
+            }
+            int index = entries.computeIfAbsent(value, k -> entries.size() + (nullable ? 1 : 0));
+            writeVarint(indexes, index);
+        }
+
+        private byte[] toBytes() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeVarint(out, nullable ? 1 : 0);
+            writeVarint(out, entries.size());
+            for (String entry : entries.keySet()) {
+                byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+                writeVarint(out, bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+            out.write(indexes.toByteArray(), 0, indexes.size());
+            return out.toByteArray();
+        }
+    }
+
+    private static List<String> strings(byte[] column, int rows) {
+        ByteBuffer in = ByteBuffer.wrap(column);
+        List<String> entries = new ArrayList<>();
+        if (readVarint(in) == 1) {
+            entries.add(null);
+        }
+        int count = readVarint(in);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[readVarint(in)];
+            in.get(bytes);
+            entries.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        List<String> values = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            values.add(entries.get(readVarint(in)));
+        }
+        return values;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
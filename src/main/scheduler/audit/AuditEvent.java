@@ -0,0 +1,93 @@
+package scheduler.audit;
+
+import java.time.Instant;
+
+public class AuditEvent {
+    private final long timestamp;
+    private final String command;
+    private final String user;
+    private final long latencyMicros;
+    private final String outcome;
+    private final int apptId;
+    private final String detail;
+    private final Throwable error;
+
+    public AuditEvent(long timestamp, String command, String user, long latencyMicros, String outcome, int apptId,
+                      String detail, Throwable error) {
+        this.timestamp = timestamp;
+        this.command = command;
+        this.user = user;
+        this.latencyMicros = latencyMicros;
+        this.outcome = outcome;
+        this.apptId = apptId;
+        this.detail = detail;
+        this.error = error;
+    }
+
+    // Getters
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public long getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    public int getApptId() {
+        return apptId;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    // One key=value line per event; values containing spaces are quoted
+    public String format() {
+        StringBuilder line = new StringBuilder(128);
+        line.append(Instant.ofEpochMilli(timestamp));
+        append(line, "command", command);
+        append(line, "user", user);
+        line.append(" latency_us=").append(latencyMicros);
+        append(line, "outcome", outcome);
+        if (apptId > 0) {
+            line.append(" appt=").append(apptId);
+        }
+        append(line, "detail", detail);
+        if (error != null) {
+            append(line, "error", error.toString());
+            StackTraceElement[] trace = error.getStackTrace();
+            if (trace.length > 0) {
+                append(line, "at", trace[0].toString());
+            }
+        }
+        return line.toString();
+    }
+
+    private static void append(StringBuilder line, String key, String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        line.append(' ').append(key).append('=');
+        if (value.indexOf(' ') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            line.append(value);
+        } else {
+            line.append('"').append(value.replace("\"", "'").replace('\n', ' ')).append('"');
+        }
+    }
+}
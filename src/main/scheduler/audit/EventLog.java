@@ -0,0 +1,174 @@
+package scheduler.audit;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Structured event and audit log kept off the request path. Producers claim a slot in a fixed-size ring with a
+// single CAS and never block: when the ring is full the event is dropped and counted instead. A daemon thread
+// drains the ring in batches into a local file that is rotated by size.
+public class EventLog {
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+    private static final int BATCH_SIZE = 512;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final long MAX_FILE_BYTES = 16L * 1024 * 1024;
+    private static final int KEEP_FILES = 5;
+
+    private static EventLog instance = null;
+
+    private final AtomicReferenceArray<AuditEvent> slots = new AtomicReferenceArray<>(CAPACITY);
+    // sequence + 1 of the event stored in each slot, so the consumer can tell a filled slot from a stale one
+    private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    private final Path file;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private long reportedDrops = 0;
+    private long fileBytes = 0;
+
+    public EventLog(Path file) {
+        this.file = file;
+        this.writer = new Thread(this::drain, "event-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Shared log used by the command loop and the data-access classes; written under AuditDir (default "audit")
+    public static synchronized EventLog getInstance() {
+        if (instance == null) {
+            String dir = System.getenv("AuditDir") == null ? "audit" : System.getenv("AuditDir");
+            instance = new EventLog(Paths.get(dir, "events.log"));
+        }
+        return instance;
+    }
+
+    public static void error(String source, Throwable e) {
+        getInstance().publish(new AuditEvent(System.currentTimeMillis(), source, null, 0, "error", 0, null, e));
+    }
+
+    // Returns false, and counts a drop, if the ring is full
+    public boolean publish(AuditEvent event) {
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail.get() >= CAPACITY) {
+                dropped.increment();
+                return false;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        int index = (int) (seq & MASK);
+        slots.lazySet(index, event);
+        published.set(index, seq + 1);
+        return true;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // Waits up to timeoutMillis for everything published so far to reach the file
+    public void close(long timeoutMillis) {
+        long target = head.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (tail.get() < target && System.currentTimeMillis() < deadline) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        running = false;
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        Writer out = null;
+        while (running) {
+            try {
+                if (out == null) {
+                    out = open();
+                }
+                int written = 0;
+                long next = tail.get();
+                while (written < BATCH_SIZE) {
+                    int index = (int) (next & MASK);
+                    if (published.get(index) != next + 1) {
+                        break;
+                    }
+                    AuditEvent event = slots.get(index);
+                    slots.lazySet(index, null);
+                    tail.set(++next);
+                    String line = event.format();
+                    out.write(line);
+                    out.write('\n');
+                    fileBytes += line.length() + 1;
+                    written++;
+                }
+                long drops = dropped.sum();
+                if (drops != reportedDrops) {
+                    String line = Instant.now() + " command=event-log outcome=dropped dropped=" + drops;
+                    out.write(line);
+                    out.write('\n');
+                    fileBytes += line.length() + 1;
+                    reportedDrops = drops;
+                }
+                if (written == 0) {
+                    out.flush();
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                } else if (fileBytes >= MAX_FILE_BYTES) {
+                    out.close();
+                    out = null;
+                    rotate();
+                }
+            } catch (IOException e) {
+                // nowhere left to report to; unwritten events stay in the ring (or are counted as drops once it
+                // fills up) and the file is opened again after a pause
+                out = null;
+                LockSupport.parkNanos(IDLE_PARK_NANOS * 1000);
+            }
+        }
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            // closing on shutdown, nothing to do
+        }
+    }
+
+    private Writer open() throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        fileBytes = Files.exists(file) ? Files.size(file) : 0;
+        return Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    // events.log -> events.log.1 -> ... -> events.log.KEEP_FILES, dropping the oldest
+    private void rotate() throws IOException {
+        for (int i = KEEP_FILES - 1; i >= 1; i--) {
+            Path older = file.resolveSibling(file.getFileName() + "." + i);
+            if (Files.exists(older)) {
+                Files.move(older, file.resolveSibling(file.getFileName() + "." + (i + 1)),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
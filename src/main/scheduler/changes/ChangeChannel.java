@@ -0,0 +1,26 @@
+package scheduler.changes;
+
+import scheduler.db.ConnectionManager;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+// Carries committed changes between scheduler instances sharing one database, so each can patch its in-memory
+// copies of doses and availabilities instead of serving them stale. A change is recorded by the statement that
+// makes it (see DatabaseChangeChannel.recordAs), so the two commit or roll back together.
+public interface ChangeChannel {
+    // Runs load, which reads what the changes patch, in one snapshot with the changes that snapshot already
+    // reflects, so that subscribe neither repeats nor misses any of them
+    void load(Load load) throws SQLException, IOException;
+
+    // Delivers the changes made by other instances since the load to the listener, in the order they were made,
+    // on a background thread
+    void subscribe(Consumer<ChangeEvent> listener);
+
+    void close();
+
+    interface Load {
+        void run(ConnectionManager cm) throws SQLException, IOException;
+    }
+}
@@ -0,0 +1,48 @@
+package scheduler.changes;
+
+import java.sql.Date;
+
+// One committed change to data other scheduler instances may hold in memory: a number of doses added to (or
+// taken from) a vaccine, or from one of its lots (with the lot's expiry as the day), or a caregiver's
+// availability on a day added (delta 1) or used up (delta -1)
+public class ChangeEvent {
+    public static final String VACCINE = "vaccine";
+    public static final String LOT = "lot";
+    public static final String AVAILABILITY = "availability";
+
+    private final String kind;
+    private final String name;
+    // null unless kind is LOT
+    private final String lot;
+    private final Date day;
+    private final int delta;
+
+    public ChangeEvent(String kind, String name, String lot, Date day, int delta) {
+        this.kind = kind;
+        this.name = name;
+        this.lot = lot;
+        this.day = day;
+        this.delta = delta;
+    }
+
+    // Getters
+    public String getKind() {
+        return kind;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getLot() {
+        return lot;
+    }
+
+    public Date getDay() {
+        return day;
+    }
+
+    public int getDelta() {
+        return delta;
+    }
+}
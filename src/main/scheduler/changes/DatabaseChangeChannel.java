@@ -0,0 +1,188 @@
+package scheduler.changes;
+
+import scheduler.audit.EventLog;
+import scheduler.db.ConnectionManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// ChangeChannel that needs nothing but the shared database: every change to Vaccines, VaccineLots or
+// Availabilities adds a row to ChangeEvents in the same statement, and every subscriber polls for rows it has not
+// seen, skipping its own. Rows are read in rowversion order, and only below MIN_ACTIVE_ROWVERSION, where no open
+// transaction can still add one, so an insert that is slow to commit or rolled back holds the poller back only
+// for as long as its transaction is open. Rows older than an hour are pruned by whichever instance gets there
+// first.
+public class DatabaseChangeChannel implements ChangeChannel {
+    private static final int POLL_LIMIT = 1000;
+    private static final long PRUNE_INTERVAL_MS = 10 * 60_000;
+    // SQLServerConnection.TRANSACTION_SNAPSHOT; the database needs ALLOW_SNAPSHOT_ISOLATION on
+    private static final int TRANSACTION_SNAPSHOT = 0x1000;
+
+    // one per process, so an instance skips the changes it made itself
+    private static final String ORIGIN = UUID.randomUUID().toString();
+
+    // recordAs for an UPDATE of Vaccines.Doses, an UPDATE or MERGE of VaccineLots.Doses, a DELETE from
+    // Availabilities and an INSERT into Availabilities
+    public static final String DOSES_CHANGED = recordAs(ChangeEvent.VACCINE, "INSERTED.Name", "NULL", "NULL",
+            "INSERTED.Doses - DELETED.Doses");
+    public static final String LOT_CHANGED = recordAs(ChangeEvent.LOT, "INSERTED.Vaccine", "INSERTED.Lot",
+            "INSERTED.Expiry", "INSERTED.Doses - ISNULL(DELETED.Doses, 0)");
+    public static final String AVAILABILITY_REMOVED = recordAs(ChangeEvent.AVAILABILITY, "DELETED.Username",
+            "NULL", "DELETED.Time", "-1");
+    public static final String AVAILABILITY_ADDED = recordAs(ChangeEvent.AVAILABILITY, "INSERTED.Username",
+            "NULL", "INSERTED.Time", "1");
+
+    private final long pollMillis = System.getenv("ChangePollMillis") == null ? 500 :
+            Long.parseLong(System.getenv("ChangePollMillis"));
+    private Thread poller = null;
+    private volatile boolean running = true;
+    // rowversion of the last row seen
+    private long lastChanged = 0;
+    // Seq of rows past lastChanged that the load already reflects
+    private final Set<Long> loaded = new HashSet<>();
+    private long lastPrune = 0;
+
+    // OUTPUT clause that adds a row to ChangeEvents for every row the statement changes, so the change and its
+    // event commit or roll back together. name, lot, day and delta are SQL expressions over INSERTED and DELETED.
+    public static String recordAs(String kind, String name, String lot, String day, String delta) {
+        return "OUTPUT '" + ORIGIN + "', '" + kind + "', " + name + ", " + lot + ", " + day + ", " + delta
+                + " INTO ChangeEvents (Origin, Kind, Name, Lot, Day, Delta) ";
+    }
+
+    @Override
+    public void load(Load load) throws SQLException, IOException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLException("No connection");
+        }
+
+        String getLoaded = "SELECT Seq FROM ChangeEvents WHERE Changed >= ?";
+        try {
+            // every row below this was committed before the snapshot starts, so the load reflects it; of the rows
+            // above, the snapshot tells which ones it does
+            long from = minActiveRowVersion(cm);
+            con.setTransactionIsolation(TRANSACTION_SNAPSHOT);
+            con.setAutoCommit(false);
+            load.run(cm);
+            PreparedStatement statement = cm.prepare(getLoaded);
+            statement.setBytes(1, toRowVersion(from));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    loaded.add(resultSet.getLong("Seq"));
+                }
+            }
+            con.commit();
+            lastChanged = from - 1;
+        } catch (SQLException | IOException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            try {
+                con.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            } catch (SQLException e) {
+                EventLog.error("changes", e);
+            }
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<ChangeEvent> listener) {
+        poller = new Thread(() -> poll(listener), "change-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (poller != null) {
+            poller.interrupt();
+        }
+    }
+
+    private void poll(Consumer<ChangeEvent> listener) {
+        while (running) {
+            try {
+                pollOnce(listener);
+                if (System.currentTimeMillis() - lastPrune > PRUNE_INTERVAL_MS) {
+                    prune();
+                    lastPrune = System.currentTimeMillis();
+                }
+            } catch (SQLException e) {
+                EventLog.error("changes", e);
+            }
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void pollOnce(Consumer<ChangeEvent> listener) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String getEvents = "SELECT TOP " + POLL_LIMIT + " Seq, Changed, Origin, Kind, Name, Lot, Day, Delta "
+                + "FROM ChangeEvents WHERE Changed > ? AND Changed < ? ORDER BY Changed";
+        try {
+            // read first, so every row below it is committed by the time the rows are read
+            long settled = minActiveRowVersion(cm);
+            PreparedStatement statement = cm.prepare(getEvents);
+            statement.setBytes(1, toRowVersion(lastChanged));
+            statement.setBytes(2, toRowVersion(settled));
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                lastChanged = ByteBuffer.wrap(resultSet.getBytes("Changed")).getLong();
+                if (loaded.remove(resultSet.getLong("Seq")) || ORIGIN.equals(resultSet.getString("Origin"))) {
+                    continue;
+                }
+                try {
+                    listener.accept(new ChangeEvent(resultSet.getString("Kind"), resultSet.getString("Name"),
+                            resultSet.getString("Lot"), resultSet.getDate("Day"), resultSet.getInt("Delta")));
+                } catch (RuntimeException e) {
+                    EventLog.error("changes", e);
+                }
+            }
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static long minActiveRowVersion(ConnectionManager cm) throws SQLException {
+        try (ResultSet resultSet = cm.prepare("SELECT MIN_ACTIVE_ROWVERSION() AS RowVer").executeQuery()) {
+            resultSet.next();
+            return ByteBuffer.wrap(resultSet.getBytes("RowVer")).getLong();
+        }
+    }
+
+    private static byte[] toRowVersion(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    private void prune() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+
+        String deleteEvents = "DELETE FROM ChangeEvents WHERE Created < DATEADD(hour, -1, SYSUTCDATETIME())";
+        try {
+            cm.prepare(deleteEvents).executeUpdate();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
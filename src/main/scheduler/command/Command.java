@@ -0,0 +1,50 @@
+package scheduler.command;
+
+import java.util.function.Consumer;
+
+public class Command {
+    private final String name;
+    private final String usage;
+    private final int minTokens;
+    private final int maxTokens;
+    private final Role role;
+    private final String arityError;
+    private final Consumer<String[]> handler;
+
+    // minTokens and maxTokens count the command name itself; arityError is shown when the count is outside them
+    public Command(String name, String usage, int minTokens, int maxTokens, Role role, String arityError,
+                   Consumer<String[]> handler) {
+        this.name = name;
+        this.usage = usage;
+        this.minTokens = minTokens;
+        this.maxTokens = maxTokens;
+        this.role = role;
+        this.arityError = arityError;
+        this.handler = handler;
+    }
+
+    // Getters
+    public String getName() {
+        return name;
+    }
+
+    public String getUsage() {
+        return usage;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public String getArityError() {
+        return arityError;
+    }
+
+    public boolean acceptsArity(int tokens) {
+        return tokens >= minTokens && tokens <= maxTokens;
+    }
+
+    public void run(String[] tokens) {
+        handler.accept(tokens);
+    }
+}
@@ -0,0 +1,59 @@
+package scheduler.command;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Commands by name, kept in registration order for the help text
+public class CommandRegistry {
+    private static final String[] NO_TOKENS = new String[0];
+
+    private final Map<String, Command> commands = new LinkedHashMap<>();
+
+    public void register(Command command) {
+        if (commands.putIfAbsent(command.getName(), command) != null) {
+            throw new IllegalArgumentException("Command registered twice: " + command.getName());
+        }
+    }
+
+    // Returns null for an unknown name
+    public Command find(String name) {
+        return commands.get(name);
+    }
+
+    public Collection<Command> getCommands() {
+        return commands.values();
+    }
+
+    // Splits a command line on runs of whitespace in one pass without a regex; null (end of input) and blank
+    // lines give no tokens
+    public static String[] tokenize(String line) {
+        if (line == null) {
+            return NO_TOKENS;
+        }
+        String[] tokens = null;
+        int count = 0;
+        int start = -1;
+        int length = line.length();
+        for (int i = 0; i <= length; i++) {
+            if (i == length || Character.isWhitespace(line.charAt(i))) {
+                if (start >= 0) {
+                    if (tokens == null) {
+                        tokens = new String[4];
+                    } else if (count == tokens.length) {
+                        tokens = Arrays.copyOf(tokens, count * 2);
+                    }
+                    tokens[count++] = line.substring(start, i);
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        if (tokens == null) {
+            return NO_TOKENS;
+        }
+        return count == tokens.length ? tokens : Arrays.copyOf(tokens, count);
+    }
+}
@@ -0,0 +1,10 @@
+package scheduler.command;
+
+// Who may run a command; checked before the command's arguments
+public enum Role {
+    ANYONE,
+    LOGGED_OUT,
+    LOGGED_IN,
+    PATIENT,
+    CAREGIVER
+}
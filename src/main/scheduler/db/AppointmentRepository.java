@@ -0,0 +1,43 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+
+public interface AppointmentRepository {
+    // Takes one dose of the vaccine and the first available caregiver on the date (by username) and books them
+    // for the patient, all or nothing. Throws IllegalStateException with the message to show the user when
+    // there is no dose or no caregiver. The dose is recorded as drawn from lot, which may be null, if that lot
+    // still has one in the database. A requestKey, which may be null, is recorded with the appointment; if the
+    // patient already used it, nothing is booked and null is returned (see findByRequestKey).
+    Appointment reserve(Date d, String vaccineName, String patientUser, String lot, String requestKey)
+            throws SQLException;
+
+    // The appointment booked by the patient's reserve with the given request key, or null
+    Appointment findByRequestKey(String patientUser, String requestKey) throws SQLException;
+
+    // Books a two-dose series: the first available caregiver on first, and the first available caregiver on the
+    // earliest day from secondFrom to secondTo, taking two doses, all or nothing. Returns both appointments in
+    // date order; throws IllegalStateException like reserve. Lots are recorded like in reserve.
+    List<Appointment> reserveSeries(Date first, Date secondFrom, Date secondTo, String vaccineName,
+                                    String patientUser, String firstLot, String secondLot) throws SQLException;
+
+    // Books planned appointments (their IDs are ignored) in batches, taking each caregiver slot and one dose per
+    // appointment, all or nothing, and a dose from each appointment's lot if it has one. Returns them with their
+    // IDs; throws IllegalStateException if a slot or the doses are gone.
+    List<Appointment> reserveAll(List<Appointment> planned) throws SQLException;
+
+    List<Appointment> findByPatient(String patientUser) throws SQLException;
+
+    List<Appointment> findByCaregiver(String caregiverUser) throws SQLException;
+
+    List<Appointment> findAll() throws SQLException;
+
+    // Up to limit appointments dated before the given day, lowest ApptID first, for archive_before
+    List<Appointment> findBefore(Date before, int limit) throws SQLException;
+
+    // Deletes the appointments with the given IDs; IDs that are already gone are ignored
+    void deleteAll(List<Integer> apptIds) throws SQLException;
+}
@@ -0,0 +1,111 @@
+package scheduler.db;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Non-blocking front to the repositories: each call runs on a dedicated executor and completes a
+// CompletableFuture, so independent queries of one command overlap and a server front end can compose them.
+// Every call takes its own pooled connection. The executor uses a virtual thread per task when the JVM has
+// them (Java 21+); otherwise AsyncThreads (default PoolSize, or 8) daemon platform threads, since each task
+// spends its time waiting on the database. Either way at most that many calls hold a connection at once.
+public class AsyncStorage {
+    private static final int threads = System.getenv("AsyncThreads") != null ?
+            Integer.parseInt(System.getenv("AsyncThreads")) :
+            System.getenv("PoolSize") != null ? Math.max(1, Integer.parseInt(System.getenv("PoolSize"))) : 8;
+    private static final Semaphore inFlight = new Semaphore(threads);
+
+    private static ExecutorService executor = null;
+
+    // A repository call; checked SQLExceptions are carried to the future as its failure
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface Action {
+        void run() throws SQLException;
+    }
+
+    public static <T> CompletableFuture<T> supply(Call<T> call) {
+        // round trips are counted for the caller, as if it had made the call itself
+        AtomicLong caller = RoundTripCounter.current();
+        return CompletableFuture.supplyAsync(() -> {
+            AtomicLong own = RoundTripCounter.use(caller);
+            inFlight.acquireUninterruptibly();
+            try {
+                return call.call();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            } finally {
+                inFlight.release();
+                RoundTripCounter.use(own);
+            }
+        }, executor());
+    }
+
+    public static CompletableFuture<Void> run(Action action) {
+        return supply(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // Waits for the future and rethrows what the call threw, for callers that are blocking anyway
+    public static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public static synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = virtualThreadExecutor();
+            if (executor == null) {
+                AtomicInteger count = new AtomicInteger();
+                executor = Executors.newFixedThreadPool(threads, r -> {
+                    Thread thread = new Thread(r, "storage-async-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        return executor;
+    }
+
+    // Looked up by reflection so the code still compiles and runs on Java 17
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // Lets queued calls finish; later calls start a new executor
+    public static synchronized void shutdown(long timeoutMillis) throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        executor = null;
+    }
+}
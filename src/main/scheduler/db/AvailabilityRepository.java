@@ -0,0 +1,19 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+public interface AvailabilityRepository {
+    void add(Date d, String caregiverUser) throws SQLException;
+
+    // Caregivers available on the date, ordered by username
+    List<String> findCaregivers(Date d) throws SQLException;
+
+    // date -> caregivers available on that date
+    Map<Date, List<String>> findAll() throws SQLException;
+
+    // Like findAll, for the days from from to to inclusive
+    Map<Date, List<String>> findRange(Date from, Date to) throws SQLException;
+}
@@ -0,0 +1,17 @@
+package scheduler.db;
+
+import scheduler.model.Caregiver;
+
+import java.sql.SQLException;
+
+public interface CaregiverRepository {
+    boolean exists(String username) throws SQLException;
+
+    void save(Caregiver caregiver) throws SQLException;
+
+    // Returns the stored caregiver, salt and hash included, or null if there is none
+    Caregiver find(String username) throws SQLException;
+
+    // Replaces the stored salt and hash, e.g. when a login moves the password to stronger parameters
+    void updateHash(String username, byte[] salt, byte[] hash, String hashVersion) throws SQLException;
+}
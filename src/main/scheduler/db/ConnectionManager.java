@@ -1,18 +1,71 @@
 package scheduler.db;
 
+import scheduler.audit.EventLog;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+    // ConnectionUrl and DriverName override the Azure SQL defaults, e.g. to point the load test at another database
+    private static final String driverName = System.getenv("DriverName") != null ? System.getenv("DriverName") :
+            "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    private static final String connectionUrl = System.getenv("ConnectionUrl") != null ?
+            System.getenv("ConnectionUrl") : "jdbc:sqlserver://" + System.getenv("Server") +
             ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private static final String userName = System.getenv("UserID");
+    private static final String userPass = System.getenv("Password");
+
+    // Closed connections go back to a small pool of idle ones, so their prepared statements are reused by the
+    // next command instead of being prepared again on a fresh connection. PoolSize=0 turns reuse off.
+    private static final int poolSize = System.getenv("PoolSize") != null ?
+            Integer.parseInt(System.getenv("PoolSize")) : 8;
+    private static final int statementCacheSize = System.getenv("StatementCacheSize") != null ?
+            Integer.parseInt(System.getenv("StatementCacheSize")) : 32;
+    // an idle connection older than this is checked before it is handed out again
+    private static final long validateAfterMillis = 30_000;
+    private static final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
 
+    private PooledConnection pooled = null;
     private Connection con = null;
+    // statements from prepareOnce, closed when the connection is given back
+    private final List<PreparedStatement> uncached = new ArrayList<>();
+
+    private static volatile boolean countRoundTrips = false;
+
+    // deadlock victim, database unavailable or busy, and the Azure SQL reconfiguration and throttling errors
+    private static final Set<Integer> TRANSIENT_ERRORS = Set.of(1205, 4060, 10928, 10929, 40197, 40501, 40613,
+            49918, 49919, 49920);
+
+    private static class PooledConnection {
+        private final Connection connection;
+        private final StatementCache statements;
+        private long lastUsed;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new StatementCache(connection, statementCacheSize);
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        private void close() {
+            statements.closeAll();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                EventLog.error("db", e);
+            }
+        }
+    }
 
     public ConnectionManager() {
         try {
@@ -24,18 +77,129 @@ public class ConnectionManager {
 
     public Connection createConnection() {
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            pooled = checkOut();
+            con = countRoundTrips ? RoundTripCounter.wrap(pooled.connection) : pooled.connection;
         } catch (SQLException e) {
-            e.printStackTrace();
+            EventLog.error("db", e);
         }
         return con;
     }
 
+    // Returns the connection's cached statement for this SQL, preparing it on first use. The statement belongs
+    // to the cache and must not be closed by the caller.
+    public PreparedStatement prepare(String sql) throws SQLException {
+        if (pooled == null) {
+            throw new SQLException("No connection");
+        }
+        PreparedStatement statement = pooled.statements.get(sql);
+        return countRoundTrips ? RoundTripCounter.wrap(statement) : statement;
+    }
+
+    // Prepares SQL whose text changes with its input, such as an IN list sized to its chunk, outside the statement
+    // cache, so it cannot push out the statements every command reuses. It is closed with the connection.
+    public PreparedStatement prepareOnce(String sql) throws SQLException {
+        if (pooled == null) {
+            throw new SQLException("No connection");
+        }
+        PreparedStatement statement = pooled.connection.prepareStatement(sql);
+        uncached.add(statement);
+        return countRoundTrips ? RoundTripCounter.wrap(statement) : statement;
+    }
+
+    private static PooledConnection checkOut() throws SQLException {
+        PooledConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - candidate.lastUsed < validateAfterMillis) {
+                return candidate;
+            }
+            if (countRoundTrips) {
+                RoundTripCounter.count();
+            }
+            if (candidate.connection.isValid(2)) {
+                return candidate;
+            }
+            candidate.close();
+        }
+        Connection connection = DriverManager.getConnection(connectionUrl, userName, userPass);
+        if (countRoundTrips) {
+            RoundTripCounter.count();
+        }
+        return new PooledConnection(connection);
+    }
+
+    // True for failures that may go away by themselves, such as a lost connection or a deadlock, as opposed to
+    // a statement the database will reject again however often it is retried
+    public static boolean isTransient(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if (next instanceof SQLTransientException || next instanceof SQLRecoverableException
+                    || TRANSIENT_ERRORS.contains(next.getErrorCode())
+                    || (next.getSQLState() != null && next.getSQLState().startsWith("08"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Turns on counting of database round trips (connects, statement executions, commits and rollbacks)
+    public static void setCountRoundTrips(boolean enabled) {
+        countRoundTrips = enabled;
+    }
+
+    // Round trips made by the calling thread, or by AsyncStorage calls it started, since counting was turned on
+    public static long getRoundTrips() {
+        return RoundTripCounter.get();
+    }
+
+    // Statement cache lookups across all connections
+    public static long getStatementCacheHits() {
+        return StatementCache.getHits();
+    }
+
+    public static long getStatementCacheMisses() {
+        return StatementCache.getMisses();
+    }
+
+    public static long getStatementCacheEvictions() {
+        return StatementCache.getEvictions();
+    }
+
+    // Closes every idle connection; called on quit
+    public static void closeAll() {
+        PooledConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            candidate.close();
+        }
+    }
+
     public void closeConnection() {
+        if (pooled == null) {
+            return;
+        }
+        for (PreparedStatement statement : uncached) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                EventLog.error("db", e);
+            }
+        }
+        uncached.clear();
         try {
-            this.con.close();
+            // a transaction left open by a failed command must not leak into the next one
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            if (idle.size() < poolSize) {
+                idle.offerFirst(pooled);
+            } else {
+                pooled.close();
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            EventLog.error("db", e);
+            pooled.close();
         }
+        pooled = null;
+        con = null;
     }
 }
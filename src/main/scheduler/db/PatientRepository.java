@@ -0,0 +1,22 @@
+package scheduler.db;
+
+import scheduler.model.Patient;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Set;
+
+public interface PatientRepository {
+    boolean exists(String username) throws SQLException;
+
+    // The usernames among the given ones that belong to a patient
+    Set<String> findExisting(Collection<String> usernames) throws SQLException;
+
+    void save(Patient patient) throws SQLException;
+
+    // Returns the stored patient, salt and hash included, or null if there is none
+    Patient find(String username) throws SQLException;
+
+    // Replaces the stored salt and hash, e.g. when a login moves the password to stronger parameters
+    void updateHash(String username, byte[] salt, byte[] hash, String hashVersion) throws SQLException;
+}
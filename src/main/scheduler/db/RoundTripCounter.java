@@ -0,0 +1,72 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Wraps a connection so every statement execution, commit and rollback made through it is counted as one
+// database round trip for the calling thread, or for the thread an AsyncStorage call is made on behalf of
+class RoundTripCounter implements InvocationHandler {
+    private static final ThreadLocal<AtomicLong> counts = ThreadLocal.withInitial(AtomicLong::new);
+
+    private final Object target;
+
+    private RoundTripCounter(Object target) {
+        this.target = target;
+    }
+
+    static Connection wrap(Connection con) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new RoundTripCounter(con));
+    }
+
+    static PreparedStatement wrap(PreparedStatement statement) {
+        return (PreparedStatement) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new RoundTripCounter(statement));
+    }
+
+    static void count() {
+        counts.get().incrementAndGet();
+    }
+
+    static long get() {
+        return counts.get().get();
+    }
+
+    // The calling thread's counter, to be shared with work done for it on other threads
+    static AtomicLong current() {
+        return counts.get();
+    }
+
+    // Makes the calling thread count into counter; returns the counter it used before, to be put back afterwards
+    static AtomicLong use(AtomicLong counter) {
+        AtomicLong previous = counts.get();
+        counts.set(counter);
+        return previous;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.startsWith("execute") || name.equals("commit") || name.equals("rollback")) {
+            count();
+        }
+        Object result;
+        try {
+            result = method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        // statements handed out by the connection are wrapped too, as whichever JDBC interface was asked for
+        if (result instanceof Statement && method.getReturnType().isInterface()) {
+            return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{method.getReturnType()}, new RoundTripCounter(result));
+        }
+        return result;
+    }
+}
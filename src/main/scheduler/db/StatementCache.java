@@ -0,0 +1,77 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// LRU cache of the prepared statements of one connection, keyed by SQL text. A statement pushed out of the cache
+// is closed, so a connection never holds more than maxSize statement handles. Like the connection itself, a
+// cache is only used by one thread at a time.
+class StatementCache {
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    private final Connection con;
+    private final Map<String, PreparedStatement> statements;
+
+    StatementCache(Connection con, int maxSize) {
+        this.con = con;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+                close(eldest.getValue());
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        // a caller may still have closed it, e.g. with try-with-resources
+        if (statement != null && !statement.isClosed()) {
+            hits.increment();
+            // a batch left behind by a failed executeBatch must not be sent with the next one
+            statement.clearBatch();
+            return statement;
+        }
+        misses.increment();
+        statement = con.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    void closeAll() {
+        for (PreparedStatement statement : statements.values()) {
+            close(statement);
+        }
+        statements.clear();
+    }
+
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // the connection is going away or already broken, nothing else to release
+        }
+    }
+
+    static long getHits() {
+        return hits.sum();
+    }
+
+    static long getMisses() {
+        return misses.sum();
+    }
+
+    static long getEvictions() {
+        return evictions.sum();
+    }
+}
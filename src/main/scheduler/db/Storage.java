@@ -0,0 +1,75 @@
+package scheduler.db;
+
+import scheduler.db.jdbc.JdbcAppointmentRepository;
+import scheduler.db.jdbc.JdbcAvailabilityRepository;
+import scheduler.db.jdbc.JdbcCaregiverRepository;
+import scheduler.db.jdbc.JdbcPatientRepository;
+import scheduler.db.jdbc.JdbcVaccineRepository;
+import scheduler.db.memory.InMemoryStorage;
+
+// The repositories the model classes and the command loop read and write through. The engine is picked once at
+// startup from the Storage environment variable: "jdbc" (the default) for the database, or "memory" to keep
+// everything in the process for tests and benchmarks.
+public class Storage {
+    public static final String JDBC = "jdbc";
+    public static final String MEMORY = "memory";
+
+    private static String engine = null;
+    private static PatientRepository patients;
+    private static CaregiverRepository caregivers;
+    private static VaccineRepository vaccines;
+    private static AvailabilityRepository availabilities;
+    private static AppointmentRepository appointments;
+
+    static {
+        select(System.getenv("Storage") == null ? JDBC : System.getenv("Storage"));
+    }
+
+    public static synchronized void select(String name) {
+        if (name.equals(engine)) {
+            return;
+        }
+        if (MEMORY.equals(name)) {
+            InMemoryStorage storage = new InMemoryStorage();
+            patients = storage.getPatients();
+            caregivers = storage.getCaregivers();
+            vaccines = storage.getVaccines();
+            availabilities = storage.getAvailabilities();
+            appointments = storage.getAppointments();
+        } else if (JDBC.equals(name)) {
+            patients = new JdbcPatientRepository();
+            caregivers = new JdbcCaregiverRepository();
+            vaccines = new JdbcVaccineRepository();
+            availabilities = new JdbcAvailabilityRepository();
+            appointments = new JdbcAppointmentRepository();
+        } else {
+            throw new IllegalArgumentException("Unknown storage engine " + name);
+        }
+        engine = name;
+    }
+
+    // Whether the database is the system of record, which the write-behind journal and stats persistence rely on
+    public static boolean isJdbc() {
+        return JDBC.equals(engine);
+    }
+
+    public static PatientRepository patients() {
+        return patients;
+    }
+
+    public static CaregiverRepository caregivers() {
+        return caregivers;
+    }
+
+    public static VaccineRepository vaccines() {
+        return vaccines;
+    }
+
+    public static AvailabilityRepository availabilities() {
+        return availabilities;
+    }
+
+    public static AppointmentRepository appointments() {
+        return appointments;
+    }
+}
@@ -0,0 +1,29 @@
+package scheduler.db;
+
+import scheduler.model.Vaccine;
+import scheduler.model.VaccineLot;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+public interface VaccineRepository {
+    // Returns null if there is no such vaccine
+    Vaccine find(String vaccineName) throws SQLException;
+
+    // vaccine name -> available doses
+    Map<String, Integer> findAll() throws SQLException;
+
+    void save(Vaccine vaccine) throws SQLException;
+
+    // Adds num doses, or removes them if num is negative
+    void addDoses(String vaccineName, int num) throws SQLException;
+
+    // Adds num doses to the vaccine and to the lot, creating the lot if it is new, in one step. Throws
+    // IllegalStateException if the lot exists with another expiry date.
+    void addLot(String vaccineName, String lot, Date expiry, int num) throws SQLException;
+
+    // Every lot with doses left
+    List<VaccineLot> findLots() throws SQLException;
+}
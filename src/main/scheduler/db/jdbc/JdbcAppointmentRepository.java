@@ -0,0 +1,468 @@
+package scheduler.db.jdbc;
+
+import scheduler.changes.DatabaseChangeChannel;
+import scheduler.db.AppointmentRepository;
+import scheduler.db.ConnectionManager;
+import scheduler.model.Appointment;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JdbcAppointmentRepository implements AppointmentRepository {
+    // rows per multi-row INSERT in reserveAll, at five parameters a row under the 2100 parameter limit
+    private static final int INSERT_BATCH = 400;
+    // IDs per IN list in deleteAll, well under the 2100 parameter limit
+    private static final int DELETE_BATCH = 1000;
+    // SQL Server's error number for a primary key violation
+    private static final int DUPLICATE_KEY = 2627;
+
+    @Override
+    public Appointment reserve(Date d, String vaccineName, String patientUser, String lot, String requestKey)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // the conditional decrement and the locked caregiver pick make two concurrent reservations for the last
+        // dose or the last slot serialize instead of both succeeding
+        String removeDose = "UPDATE Vaccines SET Doses = Doses - 1 " + DatabaseChangeChannel.DOSES_CHANGED
+                + "WHERE Name = ? AND Doses > 0";
+        // the request key goes in first, in the same round trip, so a retry of a reservation that did commit
+        // stops on the key before it can touch the doses; a concurrent retry waits on the key's lock
+        String addKeyAndRemoveDose = "INSERT INTO ReserveRequests (PatientUser, RequestKey) VALUES (?, ?); "
+                + removeDose;
+        String getCaregiver = "SELECT TOP 1 Username FROM Availabilities WITH (UPDLOCK, READPAST) WHERE Time = ? "
+                + "ORDER BY Username";
+        String deleteAvailability = "DELETE FROM Availabilities " + DatabaseChangeChannel.AVAILABILITY_REMOVED
+                + "WHERE Time = ? AND Username = ?";
+        // the lot decrement rides in the same round trip as the insert; a lot another instance has drained is
+        // not recorded
+        String addAppointment = "DECLARE @lot varchar(64) = ?; "
+                + takeLotDose("@lot")
+                + "INSERT INTO Appointments (CaregiverUser, PatientUser, VaccineName, ApptTime, Lot) "
+                + "OUTPUT INSERTED.ApptID, INSERTED.Lot VALUES (?, ?, ?, ?, @lot)";
+        String addKeyedAppointment = "DECLARE @lot varchar(64) = ?; "
+                + takeLotDose("@lot")
+                + "DECLARE @appt TABLE (ApptID int, Lot varchar(64)); "
+                + "INSERT INTO Appointments (CaregiverUser, PatientUser, VaccineName, ApptTime, Lot) "
+                + "OUTPUT INSERTED.ApptID, INSERTED.Lot INTO @appt VALUES (?, ?, ?, ?, @lot); "
+                + "UPDATE ReserveRequests SET ApptID = (SELECT ApptID FROM @appt) "
+                + "WHERE PatientUser = ? AND RequestKey = ?; "
+                + "SELECT ApptID, Lot FROM @appt";
+        try {
+            con.setAutoCommit(false);
+            int removed;
+            if (requestKey == null) {
+                PreparedStatement statementV = cm.prepare(removeDose);
+                statementV.setString(1, vaccineName);
+                removed = statementV.executeUpdate();
+            } else {
+                PreparedStatement statementV = cm.prepare(addKeyAndRemoveDose);
+                statementV.setString(1, patientUser);
+                statementV.setString(2, requestKey);
+                statementV.setString(3, vaccineName);
+                statementV.execute();
+                statementV.getMoreResults();
+                removed = statementV.getUpdateCount();
+            }
+            if (removed == 0) {
+                con.rollback();
+                throw new IllegalStateException("Not enough available doses!");
+            }
+            PreparedStatement statement = cm.prepare(getCaregiver);
+            statement.setDate(1, d);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                con.rollback();
+                throw new IllegalStateException("No Caregiver is available!");
+            }
+            String caregiverUser = resultSet.getString("Username");
+            PreparedStatement statementD = cm.prepare(deleteAvailability);
+            statementD.setDate(1, d);
+            statementD.setString(2, caregiverUser);
+            statementD.executeUpdate();
+            PreparedStatement statementA = cm.prepare(requestKey == null ? addAppointment : addKeyedAppointment);
+            statementA.setString(1, lot);
+            statementA.setString(2, vaccineName);
+            statementA.setString(3, caregiverUser);
+            statementA.setString(4, patientUser);
+            statementA.setString(5, vaccineName);
+            statementA.setDate(6, d);
+            if (requestKey != null) {
+                statementA.setString(7, patientUser);
+                statementA.setString(8, requestKey);
+            }
+            ResultSet resultSetA = outputOf(statementA);
+            resultSetA.next();
+            int apptId = resultSetA.getInt("ApptID");
+            String recordedLot = resultSetA.getString("Lot");
+            con.commit();
+            return new Appointment(apptId, caregiverUser, patientUser, vaccineName, d, recordedLot);
+        } catch (SQLException e) {
+            con.rollback();
+            if (requestKey != null && e.getErrorCode() == DUPLICATE_KEY) {
+                return null;
+            }
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Appointment> reserveSeries(Date first, Date secondFrom, Date secondTo, String vaccineName,
+                                           String patientUser, String firstLot, String secondLot)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String removeDoses = "UPDATE Vaccines SET Doses = Doses - 2 " + DatabaseChangeChannel.DOSES_CHANGED
+                + "WHERE Name = ? AND Doses >= 2";
+        // both slots in one round trip, one query each, so only the two rows picked are locked
+        String pickSlot = "SELECT TOP 1 Time, Username FROM Availabilities WITH (UPDLOCK, READPAST, ROWLOCK) ";
+        String getSlots = pickSlot + "WHERE Time = ? ORDER BY Time, Username; "
+                + pickSlot + "WHERE Time BETWEEN ? AND ? ORDER BY Time, Username";
+        String deleteAvailabilities = "DELETE FROM Availabilities " + DatabaseChangeChannel.AVAILABILITY_REMOVED
+                + "WHERE (Time = ? AND Username = ?) "
+                + "OR (Time = ? AND Username = ?)";
+        String addAppointments = "DECLARE @lot1 varchar(64) = ?, @lot2 varchar(64) = ?; "
+                + takeLotDose("@lot1") + takeLotDose("@lot2")
+                + "INSERT INTO Appointments (CaregiverUser, PatientUser, VaccineName, ApptTime, Lot) "
+                + "OUTPUT INSERTED.ApptID, INSERTED.ApptTime, INSERTED.Lot "
+                + "VALUES (?, ?, ?, ?, @lot1), (?, ?, ?, ?, @lot2)";
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statementV = cm.prepare(removeDoses);
+            statementV.setString(1, vaccineName);
+            if (statementV.executeUpdate() == 0) {
+                con.rollback();
+                throw new IllegalStateException("Not enough available doses!");
+            }
+            PreparedStatement statement = cm.prepare(getSlots);
+            statement.setDate(1, first);
+            statement.setDate(2, secondFrom);
+            statement.setDate(3, secondTo);
+            String firstCaregiver = null;
+            Date secondDay = null;
+            String secondCaregiver = null;
+            statement.execute();
+            try (ResultSet resultSet = statement.getResultSet()) {
+                if (resultSet.next()) {
+                    firstCaregiver = resultSet.getString("Username");
+                }
+            }
+            statement.getMoreResults();
+            try (ResultSet resultSet = statement.getResultSet()) {
+                if (resultSet.next()) {
+                    secondDay = resultSet.getDate("Time");
+                    secondCaregiver = resultSet.getString("Username");
+                }
+            }
+            if (firstCaregiver == null) {
+                con.rollback();
+                throw new IllegalStateException("No Caregiver is available!");
+            }
+            if (secondCaregiver == null) {
+                con.rollback();
+                throw new IllegalStateException("No Caregiver is available for the second dose!");
+            }
+            PreparedStatement statementD = cm.prepare(deleteAvailabilities);
+            statementD.setDate(1, first);
+            statementD.setString(2, firstCaregiver);
+            statementD.setDate(3, secondDay);
+            statementD.setString(4, secondCaregiver);
+            statementD.executeUpdate();
+            PreparedStatement statementA = cm.prepare(addAppointments);
+            statementA.setString(1, firstLot);
+            statementA.setString(2, secondLot);
+            statementA.setString(3, vaccineName);
+            statementA.setString(4, vaccineName);
+            statementA.setString(5, firstCaregiver);
+            statementA.setString(6, patientUser);
+            statementA.setString(7, vaccineName);
+            statementA.setDate(8, first);
+            statementA.setString(9, secondCaregiver);
+            statementA.setString(10, patientUser);
+            statementA.setString(11, vaccineName);
+            statementA.setDate(12, secondDay);
+            Appointment firstAppointment = null;
+            Appointment secondAppointment = null;
+            // OUTPUT rows come back in no particular order; the dates tell them apart
+            try (ResultSet resultSetA = outputOf(statementA)) {
+                while (resultSetA.next()) {
+                    if (resultSetA.getDate("ApptTime").equals(first)) {
+                        firstAppointment = new Appointment(resultSetA.getInt("ApptID"), firstCaregiver, patientUser,
+                                vaccineName, first, resultSetA.getString("Lot"));
+                    } else {
+                        secondAppointment = new Appointment(resultSetA.getInt("ApptID"), secondCaregiver,
+                                patientUser, vaccineName, secondDay, resultSetA.getString("Lot"));
+                    }
+                }
+            }
+            con.commit();
+            List<Appointment> series = new ArrayList<>();
+            series.add(firstAppointment);
+            series.add(secondAppointment);
+            return series;
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Appointment> reserveAll(List<Appointment> planned) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        Map<String, Integer> dosesNeeded = new HashMap<>();
+        for (Appointment appointment : planned) {
+            dosesNeeded.merge(appointment.getVaccineName(), 1, Integer::sum);
+        }
+        String removeDoses = "UPDATE Vaccines SET Doses = Doses - ? " + DatabaseChangeChannel.DOSES_CHANGED
+                + "WHERE Name = ? AND Doses >= ?";
+        String deleteAvailability = "DELETE FROM Availabilities " + DatabaseChangeChannel.AVAILABILITY_REMOVED
+                + "WHERE Time = ? AND Username = ?";
+        // lots were picked from the in-memory inventory; as in takeLotDose, an appointment whose lot another
+        // instance has drained is booked without one
+        String removeLotDose = "UPDATE VaccineLots SET Doses = Doses - 1 " + DatabaseChangeChannel.LOT_CHANGED
+                + "WHERE Vaccine = ? AND Lot = ? AND Doses > 0";
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statementV = cm.prepare(removeDoses);
+            for (Map.Entry<String, Integer> vaccine : dosesNeeded.entrySet()) {
+                statementV.setInt(1, vaccine.getValue());
+                statementV.setString(2, vaccine.getKey());
+                statementV.setInt(3, vaccine.getValue());
+                statementV.addBatch();
+            }
+            for (int count : statementV.executeBatch()) {
+                if (count == 0) {
+                    con.rollback();
+                    throw new IllegalStateException("Not enough available doses!");
+                }
+            }
+            PreparedStatement statementD = cm.prepare(deleteAvailability);
+            for (Appointment appointment : planned) {
+                statementD.setDate(1, appointment.getApptTime());
+                statementD.setString(2, appointment.getCaregiverUser());
+                statementD.addBatch();
+            }
+            for (int count : statementD.executeBatch()) {
+                if (count == 0) {
+                    con.rollback();
+                    throw new IllegalStateException(
+                            "Some caregiver slots were taken in the meantime, please try again!");
+                }
+            }
+            String[] lots = new String[planned.size()];
+            List<Integer> withLot = new ArrayList<>();
+            PreparedStatement statementL = null;
+            for (int i = 0; i < planned.size(); i++) {
+                Appointment appointment = planned.get(i);
+                if (appointment.getLot() != null) {
+                    if (statementL == null) {
+                        statementL = cm.prepare(removeLotDose);
+                    }
+                    statementL.setString(1, appointment.getVaccineName());
+                    statementL.setString(2, appointment.getLot());
+                    statementL.addBatch();
+                    withLot.add(i);
+                }
+            }
+            if (statementL != null) {
+                int[] removed = statementL.executeBatch();
+                for (int j = 0; j < removed.length; j++) {
+                    if (removed[j] != 0) {
+                        lots[withLot.get(j)] = planned.get(withLot.get(j)).getLot();
+                    }
+                }
+            }
+            // a caregiver has one appointment per day, which tells the OUTPUT rows apart
+            Map<String, Integer> ids = new HashMap<>();
+            for (int start = 0; start < planned.size(); start += INSERT_BATCH) {
+                List<Appointment> chunk = planned.subList(start, Math.min(start + INSERT_BATCH, planned.size()));
+                String addAppointments = "INSERT INTO Appointments (CaregiverUser, PatientUser, VaccineName, ApptTime, "
+                        + "Lot) OUTPUT INSERTED.ApptID, INSERTED.CaregiverUser, INSERTED.ApptTime VALUES "
+                        + String.join(", ", Collections.nCopies(chunk.size(), "(?, ?, ?, ?, ?)"));
+                PreparedStatement statementA = cm.prepareOnce(addAppointments);
+                int parameter = 1;
+                for (int i = start; i < start + chunk.size(); i++) {
+                    Appointment appointment = planned.get(i);
+                    statementA.setString(parameter++, appointment.getCaregiverUser());
+                    statementA.setString(parameter++, appointment.getPatientUser());
+                    statementA.setString(parameter++, appointment.getVaccineName());
+                    statementA.setDate(parameter++, appointment.getApptTime());
+                    statementA.setString(parameter++, lots[i]);
+                }
+                try (ResultSet resultSet = statementA.executeQuery()) {
+                    while (resultSet.next()) {
+                        ids.put(resultSet.getString("CaregiverUser") + " " + resultSet.getDate("ApptTime"),
+                                resultSet.getInt("ApptID"));
+                    }
+                }
+            }
+            con.commit();
+            List<Appointment> booked = new ArrayList<>();
+            for (int i = 0; i < planned.size(); i++) {
+                Appointment appointment = planned.get(i);
+                booked.add(new Appointment(ids.get(appointment.getCaregiverUser() + " " + appointment.getApptTime()),
+                        appointment.getCaregiverUser(), appointment.getPatientUser(), appointment.getVaccineName(),
+                        appointment.getApptTime(), lots[i]));
+            }
+            return booked;
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patientUser) throws SQLException {
+        return find("SELECT ApptID, CaregiverUser, PatientUser, VaccineName, ApptTime, Lot FROM Appointments "
+                + "WHERE PatientUser = ? ORDER BY ApptID", patientUser);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiverUser) throws SQLException {
+        return find("SELECT ApptID, CaregiverUser, PatientUser, VaccineName, ApptTime, Lot FROM Appointments "
+                + "WHERE CaregiverUser = ? ORDER BY ApptID", caregiverUser);
+    }
+
+    @Override
+    public List<Appointment> findAll() throws SQLException {
+        return find("SELECT ApptID, CaregiverUser, PatientUser, VaccineName, ApptTime, Lot FROM Appointments "
+                + "ORDER BY ApptID", null);
+    }
+
+    @Override
+    public Appointment findByRequestKey(String patientUser, String requestKey) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getAppt = "SELECT a.ApptID, a.CaregiverUser, a.PatientUser, a.VaccineName, a.ApptTime, a.Lot "
+                + "FROM ReserveRequests r JOIN Appointments a ON a.ApptID = r.ApptID "
+                + "WHERE r.PatientUser = ? AND r.RequestKey = ?";
+        try {
+            PreparedStatement statement = cm.prepare(getAppt);
+            statement.setString(1, patientUser);
+            statement.setString(2, requestKey);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return null;
+            }
+            return new Appointment(resultSet.getInt("ApptID"), resultSet.getString("CaregiverUser"),
+                    resultSet.getString("PatientUser"), resultSet.getString("VaccineName"),
+                    resultSet.getDate("ApptTime"), resultSet.getString("Lot"));
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Appointment> findBefore(Date before, int limit) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getAppts = "SELECT TOP (?) ApptID, CaregiverUser, PatientUser, VaccineName, ApptTime, Lot "
+                + "FROM Appointments WHERE ApptTime < ? ORDER BY ApptID";
+        try {
+            PreparedStatement statement = cm.prepare(getAppts);
+            statement.setInt(1, limit);
+            statement.setDate(2, before);
+            ResultSet resultSet = statement.executeQuery();
+            List<Appointment> appointments = new ArrayList<>();
+            while (resultSet.next()) {
+                appointments.add(new Appointment(resultSet.getInt("ApptID"), resultSet.getString("CaregiverUser"),
+                        resultSet.getString("PatientUser"), resultSet.getString("VaccineName"),
+                        resultSet.getDate("ApptTime"), resultSet.getString("Lot")));
+            }
+            return appointments;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void deleteAll(List<Integer> apptIds) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // one short transaction per chunk, so archiving never holds locks on much of the hot table at once
+        try {
+            for (int start = 0; start < apptIds.size(); start += DELETE_BATCH) {
+                List<Integer> chunk = apptIds.subList(start, Math.min(start + DELETE_BATCH, apptIds.size()));
+                String deleteAppointments = "DELETE FROM Appointments WHERE ApptID IN ("
+                        + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+                PreparedStatement statement = cm.prepareOnce(deleteAppointments);
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setInt(i + 1, chunk.get(i));
+                }
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private List<Appointment> find(String getAppts, String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(getAppts);
+            if (username != null) {
+                statement.setString(1, username);
+            }
+            ResultSet resultSet = statement.executeQuery();
+            List<Appointment> appointments = new ArrayList<>();
+            while (resultSet.next()) {
+                appointments.add(new Appointment(resultSet.getInt("ApptID"), resultSet.getString("CaregiverUser"),
+                        resultSet.getString("PatientUser"), resultSet.getString("VaccineName"),
+                        resultSet.getDate("ApptTime"), resultSet.getString("Lot")));
+            }
+            return appointments;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // SQL that takes a dose from the lot named by the variable (the vaccine is a parameter), or sets the variable
+    // to NULL when that lot has none left
+    private static String takeLotDose(String variable) {
+        return "UPDATE VaccineLots SET Doses = Doses - 1 " + DatabaseChangeChannel.LOT_CHANGED
+                + "WHERE Vaccine = ? AND Lot = " + variable + " AND Doses > 0; "
+                + "IF @@ROWCOUNT = 0 SET " + variable + " = NULL; ";
+    }
+
+    // Runs a statement batch and returns the first result set, skipping the update counts before it
+    private static ResultSet outputOf(PreparedStatement statement) throws SQLException {
+        boolean isResultSet = statement.execute();
+        while (!isResultSet) {
+            if (statement.getUpdateCount() == -1) {
+                throw new SQLException("No result set");
+            }
+            isResultSet = statement.getMoreResults();
+        }
+        return statement.getResultSet();
+    }
+}
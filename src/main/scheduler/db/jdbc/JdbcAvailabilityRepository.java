@@ -0,0 +1,112 @@
+package scheduler.db.jdbc;
+
+import scheduler.changes.DatabaseChangeChannel;
+import scheduler.db.AvailabilityRepository;
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class JdbcAvailabilityRepository implements AvailabilityRepository {
+
+    @Override
+    public void add(Date d, String caregiverUser) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addAvailability = "INSERT INTO Availabilities (Time, Username) "
+                + DatabaseChangeChannel.AVAILABILITY_ADDED + "VALUES (? , ?)";
+        try {
+            PreparedStatement statement = cm.prepare(addAvailability);
+            statement.setDate(1, d);
+            statement.setString(2, caregiverUser);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<String> findCaregivers(Date d) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getCaregivers = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
+        try {
+            PreparedStatement statement = cm.prepare(getCaregivers);
+            statement.setDate(1, d);
+            ResultSet resultSet = statement.executeQuery();
+            List<String> usernames = new ArrayList<>();
+            while (resultSet.next()) {
+                usernames.add(resultSet.getString("Username"));
+            }
+            return usernames;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Map<Date, List<String>> findAll() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        try {
+            return findAll(cm);
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Reads every availability on the caller's connection, e.g. inside the snapshot the change channel loads in
+    public static Map<Date, List<String>> findAll(ConnectionManager cm) throws SQLException {
+        String getAvailabilities = "SELECT Time, Username FROM Availabilities ORDER BY Time, Username";
+        PreparedStatement statement = cm.prepare(getAvailabilities);
+        Map<Date, List<String>> availabilities = new TreeMap<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                availabilities.computeIfAbsent(resultSet.getDate("Time"), k -> new ArrayList<>())
+                        .add(resultSet.getString("Username"));
+            }
+        }
+        return availabilities;
+    }
+
+    @Override
+    public Map<Date, List<String>> findRange(Date from, Date to) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getAvailabilities = "SELECT Time, Username FROM Availabilities WHERE Time BETWEEN ? AND ? "
+                + "ORDER BY Time, Username";
+        try {
+            PreparedStatement statement = cm.prepare(getAvailabilities);
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            ResultSet resultSet = statement.executeQuery();
+            Map<Date, List<String>> availabilities = new TreeMap<>();
+            while (resultSet.next()) {
+                availabilities.computeIfAbsent(resultSet.getDate("Time"), k -> new ArrayList<>())
+                        .add(resultSet.getString("Username"));
+            }
+            return availabilities;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
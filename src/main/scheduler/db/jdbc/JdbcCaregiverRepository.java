@@ -0,0 +1,96 @@
+package scheduler.db.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.CaregiverRepository;
+import scheduler.model.Caregiver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class JdbcCaregiverRepository implements CaregiverRepository {
+
+    @Override
+    public boolean exists(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+        try {
+            PreparedStatement statement = cm.prepare(selectUsername);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
+            return resultSet.isBeforeFirst();
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void save(Caregiver caregiver) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addCaregiver = "INSERT INTO Caregivers (Username, Salt, Hash, HashVersion) VALUES (? , ?, ?, ?)";
+        try {
+            PreparedStatement statement = cm.prepare(addCaregiver);
+            statement.setString(1, caregiver.getUsername());
+            statement.setBytes(2, caregiver.getSalt());
+            statement.setBytes(3, caregiver.getHash());
+            statement.setString(4, caregiver.getHashVersion());
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Caregiver find(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getCaregiver = "SELECT Salt, Hash, HashVersion FROM Caregivers WHERE Username = ?";
+        try {
+            PreparedStatement statement = cm.prepare(getCaregiver);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                byte[] salt = resultSet.getBytes("Salt");
+                byte[] hash = resultSet.getBytes("Hash");
+                String hashVersion = resultSet.getString("HashVersion");
+                return new Caregiver.CaregiverBuilder(username, salt, hash, hashVersion).build();
+            }
+            return null;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void updateHash(String username, byte[] salt, byte[] hash, String hashVersion) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String updateHash = "UPDATE Caregivers SET Salt = ?, Hash = ?, HashVersion = ? WHERE Username = ?";
+        try {
+            PreparedStatement statement = cm.prepare(updateHash);
+            statement.setBytes(1, salt);
+            statement.setBytes(2, hash);
+            statement.setString(3, hashVersion);
+            statement.setString(4, username);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
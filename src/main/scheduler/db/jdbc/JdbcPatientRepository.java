@@ -0,0 +1,133 @@
+package scheduler.db.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.PatientRepository;
+import scheduler.model.Patient;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class JdbcPatientRepository implements PatientRepository {
+    // usernames per IN list in findExisting, well under the 2100 parameter limit
+    private static final int LOOKUP_BATCH = 1000;
+
+    @Override
+    public boolean exists(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+        try {
+            PreparedStatement statement = cm.prepare(selectUsername);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
+            return resultSet.isBeforeFirst();
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Set<String> findExisting(Collection<String> usernames) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        List<String> names = new ArrayList<>(usernames);
+        Set<String> existing = new HashSet<>();
+        try {
+            for (int start = 0; start < names.size(); start += LOOKUP_BATCH) {
+                List<String> chunk = names.subList(start, Math.min(start + LOOKUP_BATCH, names.size()));
+                String selectUsernames = "SELECT Username FROM Patients WHERE Username IN ("
+                        + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+                PreparedStatement statement = cm.prepareOnce(selectUsernames);
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setString(i + 1, chunk.get(i));
+                }
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    existing.add(resultSet.getString("Username"));
+                }
+            }
+            return existing;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void save(Patient patient) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addPatient = "INSERT INTO Patients (Username, Salt, Hash, HashVersion) VALUES (? , ?, ?, ?)";
+        try {
+            PreparedStatement statement = cm.prepare(addPatient);
+            statement.setString(1, patient.getUsername());
+            statement.setBytes(2, patient.getSalt());
+            statement.setBytes(3, patient.getHash());
+            statement.setString(4, patient.getHashVersion());
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Patient find(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getPatient = "SELECT Salt, Hash, HashVersion FROM Patients WHERE Username = ?";
+        try {
+            PreparedStatement statement = cm.prepare(getPatient);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                byte[] salt = resultSet.getBytes("Salt");
+                byte[] hash = resultSet.getBytes("Hash");
+                String hashVersion = resultSet.getString("HashVersion");
+                return new Patient.PatientBuilder(username, salt, hash, hashVersion).build();
+            }
+            return null;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void updateHash(String username, byte[] salt, byte[] hash, String hashVersion) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String updateHash = "UPDATE Patients SET Salt = ?, Hash = ?, HashVersion = ? WHERE Username = ?";
+        try {
+            PreparedStatement statement = cm.prepare(updateHash);
+            statement.setBytes(1, salt);
+            statement.setBytes(2, hash);
+            statement.setString(3, hashVersion);
+            statement.setString(4, username);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package scheduler.db.jdbc;
+
+import scheduler.changes.ChangeEvent;
+import scheduler.changes.DatabaseChangeChannel;
+import scheduler.db.ConnectionManager;
+import scheduler.db.VaccineRepository;
+import scheduler.model.Vaccine;
+import scheduler.model.VaccineLot;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JdbcVaccineRepository implements VaccineRepository {
+
+    @Override
+    public Vaccine find(String vaccineName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
+        try {
+            PreparedStatement statement = cm.prepare(getVaccine);
+            statement.setString(1, vaccineName);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                return new Vaccine.VaccineBuilder(vaccineName, resultSet.getInt("Doses")).build();
+            }
+            return null;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> findAll() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getVaccines = "SELECT Name, Doses FROM Vaccines";
+        try {
+            PreparedStatement statement = cm.prepare(getVaccines);
+            ResultSet resultSet = statement.executeQuery();
+            Map<String, Integer> vaccines = new LinkedHashMap<>();
+            while (resultSet.next()) {
+                vaccines.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+            }
+            return vaccines;
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void save(Vaccine vaccine) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addDoses = "INSERT INTO Vaccines (Name, Doses) "
+                + DatabaseChangeChannel.recordAs(ChangeEvent.VACCINE, "INSERTED.Name", "NULL", "NULL",
+                        "INSERTED.Doses")
+                + "VALUES (?, ?)";
+        try {
+            PreparedStatement statement = cm.prepare(addDoses);
+            statement.setString(1, vaccine.getVaccineName());
+            statement.setInt(2, vaccine.getAvailableDoses());
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int num) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // relative update, so reservations written in the background between our read and this update are kept
+        String addDoses = "UPDATE Vaccines SET Doses = Doses + ? " + DatabaseChangeChannel.DOSES_CHANGED
+                + "WHERE Name = ?";
+        try {
+            PreparedStatement statement = cm.prepare(addDoses);
+            statement.setInt(1, num);
+            statement.setString(2, vaccineName);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addLot(String vaccineName, String lot, Date expiry, int num) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addDoses = "UPDATE Vaccines SET Doses = Doses + ? " + DatabaseChangeChannel.DOSES_CHANGED
+                + "WHERE Name = ?";
+        // a lot id that is already there only matches with the same expiry
+        String mergeLot = "MERGE VaccineLots AS t USING (VALUES (?, ?, ?, ?)) AS s (Vaccine, Lot, Expiry, Doses) "
+                + "ON t.Vaccine = s.Vaccine AND t.Lot = s.Lot "
+                + "WHEN MATCHED AND t.Expiry = s.Expiry THEN UPDATE SET Doses = t.Doses + s.Doses "
+                + "WHEN NOT MATCHED THEN INSERT (Vaccine, Lot, Expiry, Doses) "
+                + "VALUES (s.Vaccine, s.Lot, s.Expiry, s.Doses) "
+                + DatabaseChangeChannel.LOT_CHANGED + ";";
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepare(addDoses);
+            statement.setInt(1, num);
+            statement.setString(2, vaccineName);
+            statement.executeUpdate();
+            PreparedStatement statementL = cm.prepare(mergeLot);
+            statementL.setString(1, vaccineName);
+            statementL.setString(2, lot);
+            statementL.setDate(3, expiry);
+            statementL.setInt(4, num);
+            if (statementL.executeUpdate() == 0) {
+                con.rollback();
+                throw new IllegalStateException("Lot " + lot + " was added before with another expiry date!");
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<VaccineLot> findLots() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        try {
+            return findLots(cm);
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Reads the lots on the caller's connection, e.g. inside the snapshot the change channel loads in
+    public static List<VaccineLot> findLots(ConnectionManager cm) throws SQLException {
+        String getLots = "SELECT Vaccine, Lot, Expiry, Doses FROM VaccineLots WHERE Doses > 0";
+        PreparedStatement statement = cm.prepare(getLots);
+        List<VaccineLot> lots = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                lots.add(new VaccineLot(resultSet.getString("Vaccine"), resultSet.getString("Lot"),
+                        resultSet.getDate("Expiry"), resultSet.getInt("Doses")));
+            }
+        }
+        return lots;
+    }
+}
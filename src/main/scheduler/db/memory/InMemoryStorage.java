@@ -0,0 +1,374 @@
+package scheduler.db.memory;
+
+import scheduler.db.AppointmentRepository;
+import scheduler.db.AvailabilityRepository;
+import scheduler.db.CaregiverRepository;
+import scheduler.db.PatientRepository;
+import scheduler.db.VaccineRepository;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.model.VaccineLot;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+// Storage engine that keeps every table in concurrent maps inside the process, for running without a database.
+// Reads go straight to the maps; anything that changes doses, availabilities or appointments holds the storage
+// lock, which gives reserve the same all-or-nothing behaviour as the JDBC transaction. Key violations are
+// reported as SQLException like the database would.
+public class InMemoryStorage {
+    private final Map<String, Patient> patients = new ConcurrentHashMap<>();
+    private final Map<String, Caregiver> caregivers = new ConcurrentHashMap<>();
+    private final Map<String, Integer> vaccines = new ConcurrentHashMap<>();
+    // vaccine name -> lot id -> lot
+    private final Map<String, Map<String, VaccineLot>> vaccineLots = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Date, NavigableSet<String>> availabilities = new ConcurrentSkipListMap<>();
+    private final Map<Integer, Appointment> appointments = new ConcurrentSkipListMap<>();
+    private final Map<String, List<Appointment>> appointmentsByPatient = new ConcurrentHashMap<>();
+    private final Map<String, List<Appointment>> appointmentsByCaregiver = new ConcurrentHashMap<>();
+    // "patient key" -> ApptID booked by reserve with that request key
+    private final Map<String, Integer> reserveRequests = new ConcurrentHashMap<>();
+    private int lastApptId = 0;
+
+    private final PatientRepository patientRepository = new PatientRepository() {
+        @Override
+        public boolean exists(String username) {
+            return patients.containsKey(username);
+        }
+
+        @Override
+        public Set<String> findExisting(Collection<String> usernames) {
+            Set<String> existing = new HashSet<>(usernames);
+            existing.retainAll(patients.keySet());
+            return existing;
+        }
+
+        @Override
+        public void save(Patient patient) throws SQLException {
+            if (patients.putIfAbsent(patient.getUsername(), patient) != null) {
+                throw new SQLException();
+            }
+        }
+
+        @Override
+        public Patient find(String username) {
+            return patients.get(username);
+        }
+
+        @Override
+        public void updateHash(String username, byte[] salt, byte[] hash, String hashVersion) {
+            patients.computeIfPresent(username,
+                    (k, v) -> new Patient.PatientBuilder(username, salt, hash, hashVersion).build());
+        }
+    };
+
+    private final CaregiverRepository caregiverRepository = new CaregiverRepository() {
+        @Override
+        public boolean exists(String username) {
+            return caregivers.containsKey(username);
+        }
+
+        @Override
+        public void save(Caregiver caregiver) throws SQLException {
+            if (caregivers.putIfAbsent(caregiver.getUsername(), caregiver) != null) {
+                throw new SQLException();
+            }
+        }
+
+        @Override
+        public Caregiver find(String username) {
+            return caregivers.get(username);
+        }
+
+        @Override
+        public void updateHash(String username, byte[] salt, byte[] hash, String hashVersion) {
+            caregivers.computeIfPresent(username,
+                    (k, v) -> new Caregiver.CaregiverBuilder(username, salt, hash, hashVersion).build());
+        }
+    };
+
+    private final VaccineRepository vaccineRepository = new VaccineRepository() {
+        @Override
+        public Vaccine find(String vaccineName) throws SQLException {
+            Integer doses = vaccines.get(vaccineName);
+            return doses == null ? null : new Vaccine.VaccineBuilder(vaccineName, doses).build();
+        }
+
+        @Override
+        public Map<String, Integer> findAll() {
+            return new LinkedHashMap<>(vaccines);
+        }
+
+        @Override
+        public void save(Vaccine vaccine) throws SQLException {
+            synchronized (InMemoryStorage.this) {
+                if (vaccines.putIfAbsent(vaccine.getVaccineName(), vaccine.getAvailableDoses()) != null) {
+                    throw new SQLException();
+                }
+            }
+        }
+
+        @Override
+        public void addDoses(String vaccineName, int num) {
+            synchronized (InMemoryStorage.this) {
+                vaccines.computeIfPresent(vaccineName, (k, v) -> v + num);
+            }
+        }
+
+        @Override
+        public void addLot(String vaccineName, String lot, Date expiry, int num) throws SQLException {
+            synchronized (InMemoryStorage.this) {
+                if (!vaccines.containsKey(vaccineName)) {
+                    throw new SQLException();
+                }
+                Map<String, VaccineLot> lots = vaccineLots.computeIfAbsent(vaccineName, k -> new ConcurrentHashMap<>());
+                VaccineLot stored = lots.get(lot);
+                if (stored != null && !stored.getExpiry().equals(expiry)) {
+                    throw new IllegalStateException("Lot " + lot + " was added before with another expiry date!");
+                }
+                lots.put(lot, new VaccineLot(vaccineName, lot, expiry, (stored == null ? 0 : stored.getDoses()) + num));
+                vaccines.merge(vaccineName, num, Integer::sum);
+            }
+        }
+
+        @Override
+        public List<VaccineLot> findLots() {
+            List<VaccineLot> all = new ArrayList<>();
+            for (Map<String, VaccineLot> lots : vaccineLots.values()) {
+                for (VaccineLot lot : lots.values()) {
+                    if (lot.getDoses() > 0) {
+                        all.add(lot);
+                    }
+                }
+            }
+            return all;
+        }
+    };
+
+    private final AvailabilityRepository availabilityRepository = new AvailabilityRepository() {
+        @Override
+        public void add(Date d, String caregiverUser) throws SQLException {
+            synchronized (InMemoryStorage.this) {
+                if (!caregivers.containsKey(caregiverUser)
+                        || !availabilities.computeIfAbsent(d, k -> new ConcurrentSkipListSet<>()).add(caregiverUser)) {
+                    throw new SQLException();
+                }
+            }
+        }
+
+        @Override
+        public List<String> findCaregivers(Date d) {
+            NavigableSet<String> caregiverUsers = availabilities.get(d);
+            return caregiverUsers == null ? new ArrayList<>() : new ArrayList<>(caregiverUsers);
+        }
+
+        @Override
+        public Map<Date, List<String>> findAll() {
+            return copy(availabilities);
+        }
+
+        @Override
+        public Map<Date, List<String>> findRange(Date from, Date to) {
+            return copy(availabilities.subMap(from, true, to, true));
+        }
+
+        private Map<Date, List<String>> copy(Map<Date, NavigableSet<String>> days) {
+            Map<Date, List<String>> all = new LinkedHashMap<>();
+            days.forEach((d, caregiverUsers) -> {
+                if (!caregiverUsers.isEmpty()) {
+                    all.put(d, new ArrayList<>(caregiverUsers));
+                }
+            });
+            return all;
+        }
+    };
+
+    private final AppointmentRepository appointmentRepository = new AppointmentRepository() {
+        @Override
+        public Appointment reserve(Date d, String vaccineName, String patientUser, String lot, String requestKey) {
+            synchronized (InMemoryStorage.this) {
+                // a key whose appointment was archived is gone, like the cascading delete in the database
+                if (requestKey != null && findByRequestKey(patientUser, requestKey) != null) {
+                    return null;
+                }
+                Integer doses = vaccines.get(vaccineName);
+                if (doses == null || doses <= 0) {
+                    throw new IllegalStateException("Not enough available doses!");
+                }
+                NavigableSet<String> caregiverUsers = availabilities.get(d);
+                if (caregiverUsers == null || caregiverUsers.isEmpty()) {
+                    throw new IllegalStateException("No Caregiver is available!");
+                }
+                Appointment appointment = book(d, vaccineName, patientUser, lot);
+                if (requestKey != null) {
+                    reserveRequests.put(patientUser + " " + requestKey, appointment.getApptId());
+                }
+                return appointment;
+            }
+        }
+
+        @Override
+        public Appointment findByRequestKey(String patientUser, String requestKey) {
+            Integer apptId = reserveRequests.get(patientUser + " " + requestKey);
+            return apptId == null ? null : appointments.get(apptId);
+        }
+
+        @Override
+        public List<Appointment> reserveSeries(Date first, Date secondFrom, Date secondTo, String vaccineName,
+                                               String patientUser, String firstLot, String secondLot) {
+            synchronized (InMemoryStorage.this) {
+                Integer doses = vaccines.get(vaccineName);
+                if (doses == null || doses < 2) {
+                    throw new IllegalStateException("Not enough available doses!");
+                }
+                NavigableSet<String> firstCaregivers = availabilities.get(first);
+                if (firstCaregivers == null || firstCaregivers.isEmpty()) {
+                    throw new IllegalStateException("No Caregiver is available!");
+                }
+                Date secondDay = null;
+                for (Map.Entry<Date, NavigableSet<String>> day :
+                        availabilities.subMap(secondFrom, true, secondTo, true).entrySet()) {
+                    if (!day.getValue().isEmpty()) {
+                        secondDay = day.getKey();
+                        break;
+                    }
+                }
+                if (secondDay == null) {
+                    throw new IllegalStateException("No Caregiver is available for the second dose!");
+                }
+                List<Appointment> series = new ArrayList<>();
+                series.add(book(first, vaccineName, patientUser, firstLot));
+                series.add(book(secondDay, vaccineName, patientUser, secondLot));
+                return series;
+            }
+        }
+
+        @Override
+        public List<Appointment> reserveAll(List<Appointment> planned) {
+            synchronized (InMemoryStorage.this) {
+                Map<String, Integer> dosesNeeded = new HashMap<>();
+                for (Appointment appointment : planned) {
+                    dosesNeeded.merge(appointment.getVaccineName(), 1, Integer::sum);
+                    NavigableSet<String> caregiverUsers = availabilities.get(appointment.getApptTime());
+                    if (caregiverUsers == null || !caregiverUsers.contains(appointment.getCaregiverUser())) {
+                        throw new IllegalStateException(
+                                "Some caregiver slots were taken in the meantime, please try again!");
+                    }
+                }
+                for (Map.Entry<String, Integer> vaccine : dosesNeeded.entrySet()) {
+                    if (vaccines.getOrDefault(vaccine.getKey(), 0) < vaccine.getValue()) {
+                        throw new IllegalStateException("Not enough available doses!");
+                    }
+                }
+                List<Appointment> booked = new ArrayList<>();
+                for (Appointment appointment : planned) {
+                    availabilities.get(appointment.getApptTime()).remove(appointment.getCaregiverUser());
+                    vaccines.merge(appointment.getVaccineName(), -1, Integer::sum);
+                    booked.add(add(appointment.getCaregiverUser(), appointment.getPatientUser(),
+                            appointment.getVaccineName(), appointment.getApptTime(),
+                            takeLotDose(appointment.getVaccineName(), appointment.getLot())));
+                }
+                return booked;
+            }
+        }
+
+        @Override
+        public List<Appointment> findByPatient(String patientUser) {
+            return new ArrayList<>(appointmentsByPatient.getOrDefault(patientUser, List.of()));
+        }
+
+        @Override
+        public List<Appointment> findByCaregiver(String caregiverUser) {
+            return new ArrayList<>(appointmentsByCaregiver.getOrDefault(caregiverUser, List.of()));
+        }
+
+        @Override
+        public List<Appointment> findAll() {
+            return new ArrayList<>(appointments.values());
+        }
+
+        @Override
+        public List<Appointment> findBefore(Date before, int limit) {
+            return appointments.values().stream()
+                    .filter(appointment -> appointment.getApptTime().before(before))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public void deleteAll(List<Integer> apptIds) {
+            synchronized (InMemoryStorage.this) {
+                for (Integer apptId : apptIds) {
+                    Appointment appointment = appointments.remove(apptId);
+                    if (appointment != null) {
+                        appointmentsByPatient.get(appointment.getPatientUser()).remove(appointment);
+                        appointmentsByCaregiver.get(appointment.getCaregiverUser()).remove(appointment);
+                    }
+                }
+            }
+        }
+    };
+
+    // Takes a dose and the first caregiver on the date, which the caller has checked are there; holds the lock
+    private Appointment book(Date d, String vaccineName, String patientUser, String lot) {
+        String caregiverUser = availabilities.get(d).pollFirst();
+        vaccines.merge(vaccineName, -1, Integer::sum);
+        return add(caregiverUser, patientUser, vaccineName, d, takeLotDose(vaccineName, lot));
+    }
+
+    // Takes a dose from the lot like the JDBC engine does; returns the lot, or null if it has none left
+    private String takeLotDose(String vaccineName, String lot) {
+        VaccineLot stored = lot == null ? null : vaccineLots.getOrDefault(vaccineName, Map.of()).get(lot);
+        if (stored == null || stored.getDoses() <= 0) {
+            return null;
+        }
+        vaccineLots.get(vaccineName).put(lot,
+                new VaccineLot(vaccineName, lot, stored.getExpiry(), stored.getDoses() - 1));
+        return lot;
+    }
+
+    private Appointment add(String caregiverUser, String patientUser, String vaccineName, Date d, String lot) {
+        Appointment appointment = new Appointment(++lastApptId, caregiverUser, patientUser, vaccineName, d, lot);
+        appointments.put(appointment.getApptId(), appointment);
+        appointmentsByPatient.computeIfAbsent(patientUser, k -> new CopyOnWriteArrayList<>()).add(appointment);
+        appointmentsByCaregiver.computeIfAbsent(caregiverUser, k -> new CopyOnWriteArrayList<>()).add(appointment);
+        return appointment;
+    }
+
+    // Getters
+    public PatientRepository getPatients() {
+        return patientRepository;
+    }
+
+    public CaregiverRepository getCaregivers() {
+        return caregiverRepository;
+    }
+
+    public VaccineRepository getVaccines() {
+        return vaccineRepository;
+    }
+
+    public AvailabilityRepository getAvailabilities() {
+        return availabilityRepository;
+    }
+
+    public AppointmentRepository getAppointments() {
+        return appointmentRepository;
+    }
+}
@@ -0,0 +1,60 @@
+package scheduler.journal;
+
+import java.sql.Date;
+
+public class JournalRecord {
+    private final long seq;
+    private final String caregiverUser;
+    private final String patientUser;
+    private final String vaccineName;
+    private final Date apptTime;
+    // null when the dose is not drawn from a lot
+    private final String lot;
+    // null when reserve was not given one
+    private final String requestKey;
+
+    public JournalRecord(long seq, String caregiverUser, String patientUser, String vaccineName, Date apptTime,
+                         String lot) {
+        this(seq, caregiverUser, patientUser, vaccineName, apptTime, lot, null);
+    }
+
+    public JournalRecord(long seq, String caregiverUser, String patientUser, String vaccineName, Date apptTime,
+                         String lot, String requestKey) {
+        this.seq = seq;
+        this.caregiverUser = caregiverUser;
+        this.patientUser = patientUser;
+        this.vaccineName = vaccineName;
+        this.apptTime = apptTime;
+        this.lot = lot;
+        this.requestKey = requestKey;
+    }
+
+    // Getters
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getCaregiverUser() {
+        return caregiverUser;
+    }
+
+    public String getPatientUser() {
+        return patientUser;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getApptTime() {
+        return apptTime;
+    }
+
+    public String getLot() {
+        return lot;
+    }
+
+    public String getRequestKey() {
+        return requestKey;
+    }
+}
@@ -0,0 +1,183 @@
+package scheduler.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Append-only, memory-mapped log of reservations that were acknowledged before reaching the database.
+// Layout: a 16 byte header (magic, journal id, last flushed sequence number) followed by records of the form
+// [int length][body][int crc32 of body], terminated by a zero length. A body ends with the lot when there is
+// one, so records written before lots existed still decode, and then the request key when there is one (with an
+// empty lot standing in for none). Sequence numbers are per journal, so the database keys the watermark and the
+// parked conflicts by the journal id, which is picked at random when the file is created.
+public class ReservationJournal {
+    private static final int MAGIC = 0x56534A31;
+    private static final int HEADER_SIZE = 16;
+    private static final int ID_OFFSET = 4;
+    private static final int FLUSHED_SEQ_OFFSET = 8;
+    private static final int DEFAULT_SIZE = 8 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int position = HEADER_SIZE;
+    private long lastSeq = 0;
+
+    public ReservationJournal(Path file) throws IOException {
+        this(file, DEFAULT_SIZE);
+    }
+
+    public ReservationJournal(Path file, int size) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putLong(FLUSHED_SEQ_OFFSET, 0);
+            buffer.putInt(HEADER_SIZE, 0);
+            buffer.force(0, HEADER_SIZE + 4);
+        }
+        // journals written before ids existed have a zero there
+        if (buffer.getInt(ID_OFFSET) == 0) {
+            int id = 0;
+            while (id == 0) {
+                id = new SecureRandom().nextInt();
+            }
+            buffer.putInt(ID_OFFSET, id);
+            buffer.force(0, HEADER_SIZE);
+        }
+    }
+
+    public int getId() {
+        return buffer.getInt(ID_OFFSET);
+    }
+
+    public synchronized long getFlushedSeq() {
+        return buffer.getLong(FLUSHED_SEQ_OFFSET);
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    // Scans the journal and returns every record newer than both the header and the given database watermark.
+    // Must be called once before the first append so the write position and sequence numbers are restored.
+    public synchronized List<JournalRecord> replay(long dbWatermark) {
+        long flushedSeq = Math.max(getFlushedSeq(), dbWatermark);
+        List<JournalRecord> pending = new ArrayList<>();
+        lastSeq = flushedSeq;
+        position = HEADER_SIZE;
+        while (position + 4 <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + 4 + length + 4 > buffer.capacity()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(position + 4, body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(position + 4 + length)) {
+                break;
+            }
+            JournalRecord record = decode(body);
+            if (record.getSeq() > flushedSeq) {
+                pending.add(record);
+            }
+            lastSeq = Math.max(lastSeq, record.getSeq());
+            position += 4 + length + 4;
+        }
+        return pending;
+    }
+
+    // Appends a reservation and forces it to disk before returning, so the caller may acknowledge it.
+    public synchronized JournalRecord append(String caregiverUser, String patientUser, String vaccineName, Date d,
+                                             String lot, String requestKey) throws IOException {
+        JournalRecord record = new JournalRecord(lastSeq + 1, caregiverUser, patientUser, vaccineName, d, lot,
+                requestKey);
+        byte[] body = encode(record);
+        int recordSize = 4 + body.length + 4;
+        if (position + recordSize + 4 > buffer.capacity()) {
+            throw new IOException("Reservation journal is full");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        // write the terminator first so a torn write can never expose a stale record behind this one
+        buffer.putInt(position + recordSize, 0);
+        buffer.put(position + 4, body);
+        buffer.putInt(position + 4 + body.length, (int) crc.getValue());
+        buffer.putInt(position, body.length);
+        buffer.force(position, recordSize + 4);
+        position += recordSize;
+        lastSeq = record.getSeq();
+        return record;
+    }
+
+    // Records that every reservation up to seq is in the database; rewinds the journal once it is fully flushed
+    public synchronized void markFlushed(long seq) {
+        buffer.putLong(FLUSHED_SEQ_OFFSET, seq);
+        if (seq >= lastSeq) {
+            position = HEADER_SIZE;
+            buffer.putInt(HEADER_SIZE, 0);
+        }
+        buffer.force(0, HEADER_SIZE + 4);
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private static byte[] encode(JournalRecord record) {
+        byte[] caregiver = record.getCaregiverUser().getBytes(StandardCharsets.UTF_8);
+        byte[] patient = record.getPatientUser().getBytes(StandardCharsets.UTF_8);
+        byte[] vaccine = record.getVaccineName().getBytes(StandardCharsets.UTF_8);
+        byte[] key = record.getRequestKey() == null ? null : record.getRequestKey().getBytes(StandardCharsets.UTF_8);
+        byte[] lot = record.getLot() != null ? record.getLot().getBytes(StandardCharsets.UTF_8) :
+                key != null ? new byte[0] : null;
+        ByteBuffer body = ByteBuffer.allocate(8 + 8 + 6 + caregiver.length + patient.length
+                + vaccine.length + (lot == null ? 0 : 2 + lot.length) + (key == null ? 0 : 2 + key.length));
+        body.putLong(record.getSeq());
+        body.putLong(record.getApptTime().toLocalDate().toEpochDay());
+        body.putShort((short) caregiver.length).put(caregiver);
+        body.putShort((short) patient.length).put(patient);
+        body.putShort((short) vaccine.length).put(vaccine);
+        if (lot != null) {
+            body.putShort((short) lot.length).put(lot);
+        }
+        if (key != null) {
+            body.putShort((short) key.length).put(key);
+        }
+        return body.array();
+    }
+
+    private static JournalRecord decode(byte[] bytes) {
+        ByteBuffer body = ByteBuffer.wrap(bytes);
+        long seq = body.getLong();
+        Date d = Date.valueOf(LocalDate.ofEpochDay(body.getLong()));
+        String caregiver = readString(body);
+        String patient = readString(body);
+        String vaccine = readString(body);
+        String lot = body.hasRemaining() ? readString(body) : null;
+        String key = body.hasRemaining() ? readString(body) : null;
+        return new JournalRecord(seq, caregiver, patient, vaccine, d, lot == null || lot.isEmpty() ? null : lot, key);
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getShort() & 0xFFFF];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
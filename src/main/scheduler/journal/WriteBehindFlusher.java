@@ -0,0 +1,348 @@
+package scheduler.journal;
+
+import scheduler.audit.AuditEvent;
+import scheduler.audit.EventLog;
+import scheduler.changes.DatabaseChangeChannel;
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Background writer that moves journalled reservations into Appointments, Vaccines and Availabilities, and
+// the request keys they were made with into ReserveRequests.
+// Each batch is written in one transaction together with the JournalWatermark row, so a batch is applied
+// exactly once even if the process dies between the commit and the journal header update. A reservation whose
+// slot or dose another instance took first, or that the database rejects, is parked in ReservationConflicts.
+public class WriteBehindFlusher implements Runnable {
+    private static final int BATCH_SIZE = 256;
+    private static final long FLUSH_INTERVAL_MS = 200;
+    private static final long SHUTDOWN_TIMEOUT_MS = 10_000;
+
+    private final ReservationJournal journal;
+    private final BlockingQueue<JournalRecord> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public WriteBehindFlusher(ReservationJournal journal) {
+        this.journal = journal;
+        this.thread = new Thread(this, "write-behind-flusher");
+        this.thread.setDaemon(true);
+    }
+
+    // The highest sequence number of the given journal already in the database, or 0 if none is
+    public static long readWatermark(int journalId) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLTransientConnectionException("No connection");
+        }
+
+        String getWatermark = "SELECT Seq FROM JournalWatermark WHERE Journal = ?";
+        try {
+            PreparedStatement statement = cm.prepare(getWatermark);
+            statement.setInt(1, journalId);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return resultSet.getLong("Seq");
+            }
+            return 0;
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void submit(JournalRecord record) {
+        queue.add(record);
+    }
+
+    public void submitAll(List<JournalRecord> records) {
+        queue.addAll(records);
+    }
+
+    @Override
+    public void run() {
+        List<JournalRecord> batch = new ArrayList<>(BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                JournalRecord first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                if (!flushWithRetry(batch)) {
+                    // the batch is still in the journal; stop here so later batches cannot move the watermark past it
+                    return;
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Blocks until every reservation up to seq has been written to the database. Returns false if that has not
+    // happened within timeoutMs, or cannot happen because the background thread has stopped.
+    public synchronized boolean awaitFlushed(long seq, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (journal.getFlushedSeq() < seq) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0 || !thread.isAlive()) {
+                return false;
+            }
+            wait(Math.min(left, FLUSH_INTERVAL_MS));
+        }
+        return true;
+    }
+
+    // Gives the background thread a bounded amount of time to write what is still queued; anything left
+    // over remains in the journal and is replayed on the next start
+    public void shutdown() {
+        running = false;
+        try {
+            thread.join(SHUTDOWN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Writes the batch, retrying for as long as the failure is transient. A batch the database rejects outright is
+    // written again one record at a time, so that only the records failing on their own are parked.
+    private boolean flushWithRetry(List<JournalRecord> batch) {
+        try {
+            try {
+                retry(() -> write(new ArrayList<>(batch), new LinkedHashMap<>()));
+                return true;
+            } catch (SQLException e) {
+                EventLog.error("write-behind", e);
+            }
+            for (JournalRecord record : batch) {
+                try {
+                    retry(() -> write(new ArrayList<>(List.of(record)), new LinkedHashMap<>()));
+                } catch (SQLException e) {
+                    EventLog.error("write-behind", e);
+                    String reason = "rejected: " + e.getMessage();
+                    Map<JournalRecord, String> parked = new LinkedHashMap<>();
+                    parked.put(record, reason.length() > 255 ? reason.substring(0, 255) : reason);
+                    retry(() -> write(new ArrayList<>(), parked));
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            // not even the conflict row could be written; stop so later batches cannot move the watermark past it
+            EventLog.error("write-behind", e);
+            return false;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private interface Write {
+        void run() throws SQLException;
+    }
+
+    private static void retry(Write write) throws SQLException, InterruptedException {
+        long backoff = FLUSH_INTERVAL_MS;
+        while (true) {
+            try {
+                write.run();
+                return;
+            } catch (SQLException e) {
+                if (!ConnectionManager.isTransient(e)) {
+                    throw e;
+                }
+                // the records stay in the journal, so keep trying until the database is reachable again
+                EventLog.error("write-behind", e);
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, 10_000);
+            }
+        }
+    }
+
+    // Writes the records and parks the conflicts, together with the watermark, in one transaction. Records that
+    // turn out to have lost their slot or dose are moved from records to conflicts.
+    private void write(List<JournalRecord> records, Map<JournalRecord, String> conflicts) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLTransientConnectionException("No connection");
+        }
+
+        String addAppointment = "INSERT INTO Appointments (CaregiverUser, PatientUser, VaccineName, ApptTime, Lot) "
+                + "VALUES (?, ?, ?, ?, ?)";
+        // the key row goes in with its appointment, so a retry that reaches the database finds the reservation
+        String addKeyedAppointment = addAppointment + "; INSERT INTO ReserveRequests (PatientUser, RequestKey, ApptID) "
+                + "VALUES (?, ?, SCOPE_IDENTITY())";
+        String addConflict = "INSERT INTO ReservationConflicts (Journal, Seq, CaregiverUser, PatientUser, "
+                + "VaccineName, ApptTime, Reason) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        String updateWatermark = "MERGE JournalWatermark AS w USING (VALUES (?, ?)) AS s (Journal, Seq) "
+                + "ON w.Journal = s.Journal "
+                + "WHEN MATCHED AND w.Seq < s.Seq THEN UPDATE SET Seq = s.Seq "
+                + "WHEN NOT MATCHED THEN INSERT (Journal, Seq) VALUES (s.Journal, s.Seq);";
+        long maxSeq = 0;
+        for (JournalRecord record : records) {
+            maxSeq = Math.max(maxSeq, record.getSeq());
+        }
+        for (JournalRecord record : conflicts.keySet()) {
+            maxSeq = Math.max(maxSeq, record.getSeq());
+        }
+        try {
+            con.setAutoCommit(false);
+            // another instance may have booked the same slot or the last dose after this one acknowledged the
+            // reservation; such a record is set aside and the rest taken again without it
+            while (!takeSlotsAndDoses(cm, records, conflicts)) {
+                con.rollback();
+                records.removeAll(conflicts.keySet());
+            }
+            String[] lots = takeLotDoses(cm, records);
+            PreparedStatement statementA = null;
+            PreparedStatement statementK = null;
+            for (int i = 0; i < records.size(); i++) {
+                JournalRecord record = records.get(i);
+                PreparedStatement statement;
+                if (record.getRequestKey() == null) {
+                    if (statementA == null) {
+                        statementA = cm.prepare(addAppointment);
+                    }
+                    statement = statementA;
+                } else {
+                    if (statementK == null) {
+                        statementK = cm.prepare(addKeyedAppointment);
+                    }
+                    statement = statementK;
+                    statement.setString(6, record.getPatientUser());
+                    statement.setString(7, record.getRequestKey());
+                }
+                statement.setString(1, record.getCaregiverUser());
+                statement.setString(2, record.getPatientUser());
+                statement.setString(3, record.getVaccineName());
+                statement.setDate(4, record.getApptTime());
+                statement.setString(5, lots[i]);
+                statement.addBatch();
+            }
+            if (statementA != null) {
+                statementA.executeBatch();
+            }
+            if (statementK != null) {
+                statementK.executeBatch();
+            }
+            if (!conflicts.isEmpty()) {
+                PreparedStatement statementC = cm.prepare(addConflict);
+                for (Map.Entry<JournalRecord, String> conflict : conflicts.entrySet()) {
+                    JournalRecord record = conflict.getKey();
+                    statementC.setInt(1, journal.getId());
+                    statementC.setLong(2, record.getSeq());
+                    statementC.setString(3, record.getCaregiverUser());
+                    statementC.setString(4, record.getPatientUser());
+                    statementC.setString(5, record.getVaccineName());
+                    statementC.setDate(6, record.getApptTime());
+                    statementC.setString(7, conflict.getValue());
+                    statementC.addBatch();
+                }
+                statementC.executeBatch();
+            }
+            PreparedStatement statementW = cm.prepare(updateWatermark);
+            statementW.setInt(1, journal.getId());
+            statementW.setLong(2, maxSeq);
+            statementW.executeUpdate();
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+        journal.markFlushed(maxSeq);
+        synchronized (this) {
+            notifyAll();
+        }
+        for (Map.Entry<JournalRecord, String> conflict : conflicts.entrySet()) {
+            JournalRecord record = conflict.getKey();
+            String detail = "journal=" + journal.getId() + " seq=" + record.getSeq() + " caregiver="
+                    + record.getCaregiverUser() + " vaccine=" + record.getVaccineName() + " day="
+                    + record.getApptTime() + " reason=" + conflict.getValue();
+            EventLog.getInstance().publish(new AuditEvent(System.currentTimeMillis(), "write-behind",
+                    record.getPatientUser(), 0, "conflict", 0, detail, null));
+        }
+    }
+
+    // Returns false, after adding the records that lost their slot or their last dose to conflicts, if any did
+    private static boolean takeSlotsAndDoses(ConnectionManager cm, List<JournalRecord> records,
+                                             Map<JournalRecord, String> conflicts) throws SQLException {
+        if (records.isEmpty()) {
+            return true;
+        }
+        String deleteAvailability = "DELETE FROM Availabilities " + DatabaseChangeChannel.AVAILABILITY_REMOVED
+                + "WHERE Time = ? AND Username = ?";
+        String removeDose = "UPDATE Vaccines SET Doses = Doses - 1 " + DatabaseChangeChannel.DOSES_CHANGED
+                + "WHERE Name = ? AND Doses > 0";
+        PreparedStatement statementD = cm.prepare(deleteAvailability);
+        PreparedStatement statementV = cm.prepare(removeDose);
+        for (JournalRecord record : records) {
+            statementD.setDate(1, record.getApptTime());
+            statementD.setString(2, record.getCaregiverUser());
+            statementD.addBatch();
+            statementV.setString(1, record.getVaccineName());
+            statementV.addBatch();
+        }
+        int[] deleted = statementD.executeBatch();
+        int[] removed = statementV.executeBatch();
+        boolean taken = true;
+        for (int i = 0; i < records.size(); i++) {
+            if (deleted[i] == 0) {
+                conflicts.put(records.get(i), "slot taken");
+                taken = false;
+            } else if (removed[i] == 0) {
+                conflicts.put(records.get(i), "no doses left");
+                taken = false;
+            }
+        }
+        return taken;
+    }
+
+    // The lot of each record, or null where the lot has run dry in the meantime, as takeLotDose does
+    private static String[] takeLotDoses(ConnectionManager cm, List<JournalRecord> records) throws SQLException {
+        String removeLotDose = "UPDATE VaccineLots SET Doses = Doses - 1 " + DatabaseChangeChannel.LOT_CHANGED
+                + "WHERE Vaccine = ? AND Lot = ? AND Doses > 0";
+        String[] lots = new String[records.size()];
+        List<Integer> withLot = new ArrayList<>();
+        PreparedStatement statementL = null;
+        for (int i = 0; i < records.size(); i++) {
+            JournalRecord record = records.get(i);
+            if (record.getLot() != null) {
+                if (statementL == null) {
+                    statementL = cm.prepare(removeLotDose);
+                }
+                statementL.setString(1, record.getVaccineName());
+                statementL.setString(2, record.getLot());
+                statementL.addBatch();
+                withLot.add(i);
+            }
+        }
+        if (statementL != null) {
+            int[] removed = statementL.executeBatch();
+            for (int j = 0; j < removed.length; j++) {
+                if (removed[j] != 0) {
+                    lots[withLot.get(j)] = records.get(withLot.get(j)).getLot();
+                }
+            }
+        }
+        return lots;
+    }
+}
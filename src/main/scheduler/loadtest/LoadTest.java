@@ -0,0 +1,365 @@
+package scheduler.loadtest;
+
+import scheduler.Scheduler;
+import scheduler.db.ConnectionManager;
+import scheduler.db.Storage;
+import scheduler.model.Appointment;
+import scheduler.model.Vaccine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drives the real command handlers with many concurrent simulated users and reports throughput, latency
+// percentiles, database round trips per operation and any oversold doses or double-booked caregivers.
+//
+// Usage: LoadTest [--users 32] [--seconds 30] [--caregivers 20] [--days 30] [--start 2030-01-01]
+//                 [--vaccines Pfizer:500,Moderna:500] [--mix reserve=30,search_caregiver_schedule=40,...]
+//                 [--schema src/main/resources/create.sql] [--storage jdbc|memory]
+// The database is the one ConnectionManager connects to, so point ConnectionUrl/DriverName at an embedded
+// SQL Server compatible database (and pass --schema to create the tables) to run without Azure SQL, or pass
+// --storage memory to measure the command handlers without any database.
+public class LoadTest {
+    private static final String PASSWORD = "Passw0rd!";
+    private static final String[] OPERATIONS = {"create_patient", "login_patient", "search_caregiver_schedule",
+            "reserve", "show_appointments", "add_doses"};
+
+    private final Map<String, String> options;
+    private final String prefix;
+    private final int users;
+    private final long seconds;
+    private final int caregivers;
+    private final int days;
+    private final LocalDate start;
+    private final Map<String, Integer> vaccines = new LinkedHashMap<>();
+    private final String[] mixOperations;
+    private final int[] mixWeights;
+    private int totalWeight = 0;
+
+    private final Map<String, OperationStats> results = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> dosesAdded = new ConcurrentHashMap<>();
+
+    public LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.prefix = "lt" + Long.toString(System.currentTimeMillis() % 100_000_000L, 36);
+        this.users = Integer.parseInt(options.getOrDefault("users", "32"));
+        this.seconds = Long.parseLong(options.getOrDefault("seconds", "30"));
+        this.caregivers = Integer.parseInt(options.getOrDefault("caregivers", "20"));
+        this.days = Integer.parseInt(options.getOrDefault("days", "30"));
+        this.start = LocalDate.parse(options.getOrDefault("start", "2030-01-01"));
+        for (String vaccine : options.getOrDefault("vaccines", "Pfizer:500,Moderna:500").split(",")) {
+            String[] parts = vaccine.split(":");
+            vaccines.put(parts[0], Integer.parseInt(parts[1]));
+        }
+        String mix = options.getOrDefault("mix", "search_caregiver_schedule=40,reserve=30,show_appointments=20,"
+                + "login_patient=5,create_patient=3,add_doses=2");
+        String[] entries = mix.split(",");
+        this.mixOperations = new String[entries.length];
+        this.mixWeights = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String[] parts = entries[i].split("=");
+            if (!Arrays.asList(OPERATIONS).contains(parts[0])) {
+                throw new IllegalArgumentException("Unknown operation in mix: " + parts[0]);
+            }
+            mixOperations[i] = parts[0];
+            mixWeights[i] = Integer.parseInt(parts[1]);
+            totalWeight += mixWeights[i];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected --option value, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        new LoadTest(options).run();
+    }
+
+    public void run() throws Exception {
+        PrintStream report = System.out;
+        if (options.containsKey("storage")) {
+            Storage.select(options.get("storage"));
+        }
+        if (options.containsKey("schema")) {
+            createSchema(options.get("schema"));
+        }
+        // the handlers print to System.out; keep that out of the report
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Map<String, Integer> initialDoses;
+        long elapsedNanos;
+        try {
+            Scheduler.start();
+            setUp();
+            initialDoses = readDoses();
+            ConnectionManager.setCountRoundTrips(true);
+            elapsedNanos = runUsers();
+            ConnectionManager.setCountRoundTrips(false);
+            // write-behind mode only reaches the database once flushed
+            Scheduler.stop();
+        } finally {
+            System.setOut(report);
+        }
+        report(report, elapsedNanos);
+        checkInvariants(report, initialDoses);
+    }
+
+    private void createSchema(String path) throws IOException, SQLException {
+        String script = new String(Files.readAllBytes(Paths.get(path)));
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            for (String sql : script.split(";")) {
+                if (!sql.isBlank()) {
+                    try (Statement statement = con.createStatement()) {
+                        statement.execute(sql);
+                    }
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Every caregiver is available on every day; the first one also stocks the vaccines
+    private void setUp() {
+        for (int i = 0; i < caregivers; i++) {
+            command("create_caregiver " + caregiver(i) + " " + PASSWORD);
+            for (int d = 0; d < days; d++) {
+                command("upload_availability " + start.plusDays(d));
+            }
+            if (i == 0) {
+                for (Map.Entry<String, Integer> vaccine : vaccines.entrySet()) {
+                    command("add_doses " + vaccine.getKey() + " " + vaccine.getValue());
+                }
+            }
+            command("logout");
+        }
+    }
+
+    private String caregiver(int i) {
+        return prefix + "cg" + i;
+    }
+
+    private static void command(String line) {
+        Scheduler.execute(line);
+    }
+
+    private long runUsers() throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(users);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int u = 0; u < users; u++) {
+            int user = u;
+            Thread thread = new Thread(() -> {
+                String patient = prefix + "p" + user;
+                command("create_patient " + patient + " " + PASSWORD);
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+                int created = 0;
+                while (System.nanoTime() < deadline) {
+                    String operation = pickOperation();
+                    if (operation.equals("create_patient")) {
+                        command("logout");
+                        patient = prefix + "p" + user + "n" + (++created);
+                        measure(operation, "create_patient " + patient + " " + PASSWORD);
+                    } else if (operation.equals("login_patient")) {
+                        command("logout");
+                        measure(operation, "login_patient " + patient + " " + PASSWORD);
+                    } else if (operation.equals("add_doses")) {
+                        String vaccine = randomVaccine();
+                        command("logout");
+                        command("login_caregiver " + caregiver(0) + " " + PASSWORD);
+                        if (measure(operation, "add_doses " + vaccine + " 1")) {
+                            dosesAdded.computeIfAbsent(vaccine, k -> new LongAdder()).increment();
+                        }
+                        command("logout");
+                        command("login_patient " + patient + " " + PASSWORD);
+                    } else if (operation.equals("reserve")) {
+                        measure(operation, "reserve " + randomDay() + " " + randomVaccine());
+                    } else if (operation.equals("search_caregiver_schedule")) {
+                        measure(operation, "search_caregiver_schedule " + randomDay());
+                    } else {
+                        measure(operation, operation);
+                    }
+                }
+            }, "load-user-" + u);
+            threads.add(thread);
+            thread.start();
+        }
+        ready.await();
+        long begin = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - begin;
+    }
+
+    // Runs one command and records its latency, outcome and round trips; returns true if it succeeded
+    private boolean measure(String operation, String line) {
+        long roundTrips = ConnectionManager.getRoundTrips();
+        long begin = System.nanoTime();
+        command(line);
+        long latency = System.nanoTime() - begin;
+        boolean ok = Scheduler.lastOutcome().equals("ok");
+        results.computeIfAbsent(operation, k -> new OperationStats())
+                .record(latency, ok, ConnectionManager.getRoundTrips() - roundTrips);
+        return ok;
+    }
+
+    private String pickOperation() {
+        int r = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < mixOperations.length; i++) {
+            r -= mixWeights[i];
+            if (r < 0) {
+                return mixOperations[i];
+            }
+        }
+        return mixOperations[mixOperations.length - 1];
+    }
+
+    private LocalDate randomDay() {
+        return start.plusDays(ThreadLocalRandom.current().nextInt(days));
+    }
+
+    private String randomVaccine() {
+        List<String> names = new ArrayList<>(vaccines.keySet());
+        return names.get(ThreadLocalRandom.current().nextInt(names.size()));
+    }
+
+    private Map<String, Integer> readDoses() throws SQLException {
+        Map<String, Integer> doses = new HashMap<>();
+        for (String name : vaccines.keySet()) {
+            Vaccine vaccine = new Vaccine.VaccineGetter(name).get();
+            doses.put(name, vaccine == null ? 0 : vaccine.getAvailableDoses());
+        }
+        return doses;
+    }
+
+    private void report(PrintStream out, long elapsedNanos) {
+        double elapsedSeconds = elapsedNanos / 1e9;
+        long total = 0;
+        out.println();
+        out.printf("%-26s %8s %7s %9s %9s %9s %9s %9s%n", "operation", "count", "ok%", "p50 ms", "p90 ms",
+                "p99 ms", "max ms", "trips/op");
+        for (String operation : OPERATIONS) {
+            OperationStats stats = results.get(operation);
+            if (stats == null) {
+                continue;
+            }
+            long[] latencies = stats.sortedLatencies();
+            total += latencies.length;
+            out.printf("%-26s %8d %6.1f%% %9.2f %9.2f %9.2f %9.2f %9.2f%n", operation, latencies.length,
+                    100.0 * stats.ok.sum() / latencies.length, percentile(latencies, 0.50),
+                    percentile(latencies, 0.90), percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6,
+                    (double) stats.roundTrips.sum() / latencies.length);
+        }
+        out.printf("%n%d users, %d operations in %.1f s: %.1f ops/s%n", users, total, elapsedSeconds,
+                total / elapsedSeconds);
+        long hits = ConnectionManager.getStatementCacheHits();
+        long lookups = hits + ConnectionManager.getStatementCacheMisses();
+        if (lookups > 0) {
+            out.printf("Statement cache: %.1f%% hits of %d lookups, %d evictions%n", 100.0 * hits / lookups, lookups,
+                    ConnectionManager.getStatementCacheEvictions());
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    private void checkInvariants(PrintStream out, Map<String, Integer> initialDoses) throws SQLException {
+        int violations = 0;
+        Map<String, Integer> bookings = new HashMap<>();
+        Map<String, Long> booked = new HashMap<>();
+        for (Appointment appointment : Storage.appointments().findAll()) {
+            if (!appointment.getPatientUser().startsWith(prefix)) {
+                continue;
+            }
+            bookings.merge(appointment.getCaregiverUser() + " on " + appointment.getApptTime(), 1, Integer::sum);
+            booked.merge(appointment.getVaccineName(), 1L, Long::sum);
+        }
+        for (Map.Entry<String, Integer> slot : bookings.entrySet()) {
+            if (slot.getValue() > 1) {
+                out.println("Double booking: " + slot.getKey() + " has " + slot.getValue() + " appointments");
+                violations++;
+            }
+        }
+        for (String name : vaccines.keySet()) {
+            long count = booked.getOrDefault(name, 0L);
+            long added = dosesAdded.containsKey(name) ? dosesAdded.get(name).sum() : 0;
+            long available = initialDoses.get(name) + added;
+            if (count > available) {
+                out.println("Oversell: " + count + " appointments for " + name + " but only " + available
+                        + " doses were available");
+                violations++;
+            }
+        }
+        for (Map.Entry<String, Integer> vaccine : Storage.vaccines().findAll().entrySet()) {
+            if (vaccine.getValue() < 0) {
+                out.println("Oversell: " + vaccine.getKey() + " has " + vaccine.getValue() + " doses");
+                violations++;
+            }
+        }
+        out.println(violations == 0 ? "No oversells or double bookings found" : violations + " violation(s) found");
+    }
+
+    private static class OperationStats {
+        private final List<long[]> chunks = new ArrayList<>();
+        private long[] current = new long[1024];
+        private int size = 0;
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder roundTrips = new LongAdder();
+
+        synchronized void record(long latencyNanos, boolean succeeded, long trips) {
+            if (size == current.length) {
+                chunks.add(current);
+                current = new long[current.length];
+                size = 0;
+            }
+            current[size++] = latencyNanos;
+            if (succeeded) {
+                ok.increment();
+            }
+            roundTrips.add(trips);
+        }
+
+        synchronized long[] sortedLatencies() {
+            int total = chunks.size() * current.length + size;
+            long[] all = new long[total];
+            int offset = 0;
+            for (long[] chunk : chunks) {
+                System.arraycopy(chunk, 0, all, offset, chunk.length);
+                offset += chunk.length;
+            }
+            System.arraycopy(current, 0, all, offset, size);
+            Arrays.sort(all);
+            return all;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+public class Appointment {
+    private final int apptId;
+    private final String caregiverUser;
+    private final String patientUser;
+    private final String vaccineName;
+    private final Date apptTime;
+    // lot the dose is drawn from; null when it comes from doses added without a lot
+    private final String lot;
+
+    public Appointment(int apptId, String caregiverUser, String patientUser, String vaccineName, Date apptTime) {
+        this(apptId, caregiverUser, patientUser, vaccineName, apptTime, null);
+    }
+
+    public Appointment(int apptId, String caregiverUser, String patientUser, String vaccineName, Date apptTime,
+                       String lot) {
+        this.apptId = apptId;
+        this.caregiverUser = caregiverUser;
+        this.patientUser = patientUser;
+        this.vaccineName = vaccineName;
+        this.apptTime = apptTime;
+        this.lot = lot;
+    }
+
+    // Getters
+    public int getApptId() {
+        return apptId;
+    }
+
+    public String getCaregiverUser() {
+        return caregiverUser;
+    }
+
+    public String getPatientUser() {
+        return patientUser;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getApptTime() {
+        return apptTime;
+    }
+
+    public String getLot() {
+        return lot;
+    }
+}
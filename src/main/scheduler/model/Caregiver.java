@@ -1,26 +1,33 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.audit.EventLog;
+import scheduler.db.AsyncStorage;
+import scheduler.db.Storage;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    // parameters the hash was made with, see PasswordHasher; null for hashes from before they were versioned
+    private final String hashVersion;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashVersion = builder.hashVersion;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashVersion = getter.hashVersion;
     }
 
     // Getters
@@ -36,50 +43,37 @@ public class Caregiver {
         return hash;
     }
 
+    public String getHashVersion() {
+        return hashVersion;
+    }
+
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Storage.caregivers().save(this);
+    }
+
+    public CompletableFuture<Void> saveToDBAsync() {
+        return AsyncStorage.run(this::saveToDB);
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Storage.availabilities().add(d, this.username);
+    }
+
+    public CompletableFuture<Void> uploadAvailabilityAsync(Date d) {
+        return AsyncStorage.run(() -> uploadAvailability(d));
     }
 
     public static class CaregiverBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final String hashVersion;
 
-        public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash, String hashVersion) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashVersion = hashVersion;
         }
 
         public Caregiver build() {
@@ -92,6 +86,7 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private String hashVersion;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -99,35 +94,37 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
+            Caregiver stored = Storage.caregivers().find(this.username);
+            if (stored == null) {
+                return null;
+            }
+            // check if the password matches
+            PasswordHasher hasher = PasswordHasher.getInstance();
+            if (!hasher.verify(password, stored.getSalt(), stored.getHash(), stored.getHashVersion())) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.salt = stored.getSalt();
+            this.hash = stored.getHash();
+            this.hashVersion = stored.getHashVersion();
+            // the password is known right now, so this is the one chance to move it to the current parameters;
+            // the login has already succeeded, so a failure here only leaves the old hash for next time
+            if (hasher.needsRehash(this.hashVersion)) {
+                try {
+                    byte[] newSalt = Util.generateSalt();
+                    byte[] newHash = hasher.hash(password, newSalt);
+                    Storage.caregivers().updateHash(this.username, newSalt, newHash, hasher.getCurrentVersion());
+                    this.salt = newSalt;
+                    this.hash = newHash;
+                    this.hashVersion = hasher.getCurrentVersion();
+                } catch (SQLException | IllegalStateException e) {
+                    EventLog.error("rehash", e);
+                }
+            }
+            return new Caregiver(this);
+        }
+
+        public CompletableFuture<Caregiver> getAsync() {
+            return AsyncStorage.supply(this::get);
         }
     }
 }
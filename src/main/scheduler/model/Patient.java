@@ -1,26 +1,33 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.audit.EventLog;
+import scheduler.db.AsyncStorage;
+import scheduler.db.Storage;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 public class Patient {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    // parameters the hash was made with, see PasswordHasher; null for hashes from before they were versioned
+    private final String hashVersion;
 
     private Patient(PatientBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashVersion = builder.hashVersion;
     }
 
     private Patient(PatientGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashVersion = getter.hashVersion;
     }
 
     //Getters
@@ -36,33 +43,29 @@ public class Patient {
         return hash;
     }
 
+    public String getHashVersion() {
+        return hashVersion;
+    }
+
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Storage.patients().save(this);
+    }
+
+    public CompletableFuture<Void> saveToDBAsync() {
+        return AsyncStorage.run(this::saveToDB);
     }
 
     public static class PatientBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final String hashVersion;
 
-        public PatientBuilder(String username, byte[] salt, byte[] hash) {
+        public PatientBuilder(String username, byte[] salt, byte[] hash, String hashVersion) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashVersion = hashVersion;
         }
 
         public Patient build() {
@@ -75,6 +78,7 @@ public class Patient {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private String hashVersion;
 
         public PatientGetter(String username, String password){
             this.username = username;
@@ -82,35 +86,37 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
-                }
+            Patient stored = Storage.patients().find(this.username);
+            if (stored == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            // check if the password matches
+            PasswordHasher hasher = PasswordHasher.getInstance();
+            if (!hasher.verify(password, stored.getSalt(), stored.getHash(), stored.getHashVersion())) {
+                return null;
+            }
+            this.salt = stored.getSalt();
+            this.hash = stored.getHash();
+            this.hashVersion = stored.getHashVersion();
+            // the password is known right now, so this is the one chance to move it to the current parameters;
+            // the login has already succeeded, so a failure here only leaves the old hash for next time
+            if (hasher.needsRehash(this.hashVersion)) {
+                try {
+                    byte[] newSalt = Util.generateSalt();
+                    byte[] newHash = hasher.hash(password, newSalt);
+                    Storage.patients().updateHash(this.username, newSalt, newHash, hasher.getCurrentVersion());
+                    this.salt = newSalt;
+                    this.hash = newHash;
+                    this.hashVersion = hasher.getCurrentVersion();
+                } catch (SQLException | IllegalStateException e) {
+                    EventLog.error("rehash", e);
+                }
+            }
+            return new Patient(this);
+        }
+
+        public CompletableFuture<Patient> getAsync() {
+            return AsyncStorage.supply(this::get);
         }
     }
 }
\ No newline at end of file
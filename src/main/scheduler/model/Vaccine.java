@@ -1,11 +1,10 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.AsyncStorage;
+import scheduler.db.Storage;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
 
 public class Vaccine {
     private final String vaccineName;
@@ -31,20 +30,11 @@ public class Vaccine {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Storage.vaccines().save(this);
+    }
+
+    public CompletableFuture<Void> saveToDBAsync() {
+        return AsyncStorage.run(this::saveToDB);
     }
 
     // Increment the available doses
@@ -53,21 +43,12 @@ public class Vaccine {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
         this.availableDoses += num;
+        // relative update, so reservations written in the background between our read and this update are kept
+        Storage.vaccines().addDoses(this.vaccineName, num);
+    }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+    public CompletableFuture<Void> increaseAvailableDosesAsync(int num) {
+        return AsyncStorage.run(() -> increaseAvailableDoses(num));
     }
 
     // Decrement the available doses
@@ -76,20 +57,7 @@ public class Vaccine {
             throw new IllegalArgumentException("Not enough available doses!");
         }
         this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Storage.vaccines().addDoses(this.vaccineName, -num);
     }
 
     @Override
@@ -123,24 +91,16 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
-                }
+            Vaccine stored = Storage.vaccines().find(this.vaccineName);
+            if (stored == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.availableDoses = stored.getAvailableDoses();
+            return new Vaccine(this);
+        }
+
+        public CompletableFuture<Vaccine> getAsync() {
+            return AsyncStorage.supply(this::get);
         }
     }
 }
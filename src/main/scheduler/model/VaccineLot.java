@@ -0,0 +1,35 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+// Doses of a vaccine that arrived together and expire on the same day
+public class VaccineLot {
+    private final String vaccineName;
+    private final String lot;
+    private final Date expiry;
+    private final int doses;
+
+    public VaccineLot(String vaccineName, String lot, Date expiry, int doses) {
+        this.vaccineName = vaccineName;
+        this.lot = lot;
+        this.expiry = expiry;
+        this.doses = doses;
+    }
+
+    // Getters
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public String getLot() {
+        return lot;
+    }
+
+    public Date getExpiry() {
+        return expiry;
+    }
+
+    public int getDoses() {
+        return doses;
+    }
+}
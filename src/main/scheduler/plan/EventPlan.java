@@ -0,0 +1,42 @@
+package scheduler.plan;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+// Result of EventPlanner.plan: the appointments to book (without IDs), the requests that could not be placed
+// with the reason, and for every day in range the caregiver slots offered and used
+public class EventPlan {
+    private final List<Appointment> appointments;
+    private final Map<PlanRequest, String> unplaced;
+    private final NavigableMap<Date, Integer> offered;
+    private final NavigableMap<Date, Integer> used;
+
+    public EventPlan(List<Appointment> appointments, Map<PlanRequest, String> unplaced,
+                     NavigableMap<Date, Integer> offered, NavigableMap<Date, Integer> used) {
+        this.appointments = appointments;
+        this.unplaced = unplaced;
+        this.offered = offered;
+        this.used = used;
+    }
+
+    // Getters
+    public List<Appointment> getAppointments() {
+        return appointments;
+    }
+
+    public Map<PlanRequest, String> getUnplaced() {
+        return unplaced;
+    }
+
+    public NavigableMap<Date, Integer> getOffered() {
+        return offered;
+    }
+
+    public NavigableMap<Date, Integer> getUsed() {
+        return used;
+    }
+}
@@ -0,0 +1,196 @@
+package scheduler.plan;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Assigns a batch of patients to caregiver-days for plan_event. A patient's window covers consecutive days, so
+// the patient/day graph is convex and Glover's rule (walk the days in order and give each slot to the waiting
+// patient whose window closes first) finds a maximum matching in O(n log n). Days linked by overlapping windows
+// form independent components, which are solved in parallel. Dose counts tie the components together: when a
+// vaccine ends up over-assigned, its latest requests (in file order) are dropped and the components they were
+// in are solved again.
+public class EventPlanner {
+    public static final String NO_SLOT = "no caregiver available";
+    public static final String NO_DOSES = "not enough doses";
+    public static final String UNKNOWN_PATIENT = "unknown patient";
+    public static final String DUPLICATE = "duplicate request";
+
+    private final Date[] days;
+    private final List<List<String>> caregivers = new ArrayList<>();
+    private final NavigableMap<Date, Integer> dayIndex = new TreeMap<>();
+    private final Map<String, Integer> doses;
+
+    // slots: caregivers free on each day, doses: available doses per vaccine
+    public EventPlanner(Map<Date, ? extends Collection<String>> slots, Map<String, Integer> doses) {
+        NavigableMap<Date, List<String>> sorted = new TreeMap<>();
+        slots.forEach((d, names) -> {
+            if (!names.isEmpty()) {
+                List<String> sortedNames = new ArrayList<>(names);
+                sortedNames.sort(null);
+                sorted.put(d, sortedNames);
+            }
+        });
+        this.days = sorted.keySet().toArray(new Date[0]);
+        for (Map.Entry<Date, List<String>> day : sorted.entrySet()) {
+            dayIndex.put(day.getKey(), caregivers.size());
+            caregivers.add(day.getValue());
+        }
+        this.doses = doses;
+    }
+
+    public EventPlan plan(List<PlanRequest> requests, Set<String> knownPatients) {
+        Map<PlanRequest, String> unplaced = new HashMap<>();
+        List<Window> windows = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (PlanRequest request : requests) {
+            Integer available = doses.get(request.getVaccineName());
+            NavigableMap<Date, Integer> open = dayIndex.subMap(request.getFrom(), true, request.getTo(), true);
+            if (!seen.add(request.getPatientUser())) {
+                unplaced.put(request, DUPLICATE);
+            } else if (!knownPatients.contains(request.getPatientUser())) {
+                unplaced.put(request, UNKNOWN_PATIENT);
+            } else if (available == null || available <= 0) {
+                unplaced.put(request, NO_DOSES);
+            } else if (open.isEmpty()) {
+                unplaced.put(request, NO_SLOT);
+            } else {
+                // days holds only days with slots, so the window is a contiguous range of indexes
+                windows.add(new Window(request, open.firstEntry().getValue(), open.lastEntry().getValue()));
+            }
+        }
+
+        // sweep the windows by first day; a component ends where no window reaches past it
+        windows.sort(Comparator.comparingInt((Window w) -> w.first).thenComparingInt(w -> w.request.getLine()));
+        List<List<Window>> components = new ArrayList<>();
+        int reach = -1;
+        for (Window window : windows) {
+            if (window.first > reach) {
+                components.add(new ArrayList<>());
+            }
+            components.get(components.size() - 1).add(window);
+            window.component = components.size() - 1;
+            reach = Math.max(reach, window.last);
+        }
+
+        int[] assigned = new int[windows.size()];
+        Map<Window, Integer> position = new HashMap<>();
+        for (int i = 0; i < windows.size(); i++) {
+            position.put(windows.get(i), i);
+        }
+        Set<Window> dropped = new HashSet<>();
+        Set<Integer> pending = new HashSet<>();
+        for (int c = 0; c < components.size(); c++) {
+            pending.add(c);
+        }
+        while (!pending.isEmpty()) {
+            pending.parallelStream().forEach(c -> solve(components.get(c), dropped, position, assigned));
+            pending.clear();
+            Map<String, List<Window>> byVaccine = new HashMap<>();
+            for (Window window : windows) {
+                if (assigned[position.get(window)] >= 0) {
+                    byVaccine.computeIfAbsent(window.request.getVaccineName(), k -> new ArrayList<>()).add(window);
+                }
+            }
+            for (Map.Entry<String, List<Window>> vaccine : byVaccine.entrySet()) {
+                List<Window> placed = vaccine.getValue();
+                int excess = placed.size() - doses.get(vaccine.getKey());
+                if (excess <= 0) {
+                    continue;
+                }
+                placed.sort(Comparator.comparingInt((Window w) -> w.request.getLine()).reversed());
+                for (Window window : placed.subList(0, excess)) {
+                    dropped.add(window);
+                    unplaced.put(window.request, NO_DOSES);
+                    pending.add(window.component);
+                }
+            }
+        }
+
+        // caregivers on a day go to its patients in file order, both sides sorted, so a plan is reproducible
+        List<List<Window>> perDay = new ArrayList<>();
+        for (int i = 0; i < days.length; i++) {
+            perDay.add(new ArrayList<>());
+        }
+        for (Window window : windows) {
+            int day = assigned[position.get(window)];
+            if (day >= 0) {
+                perDay.get(day).add(window);
+            } else if (!dropped.contains(window)) {
+                unplaced.put(window.request, NO_SLOT);
+            }
+        }
+        List<Appointment> appointments = new ArrayList<>();
+        NavigableMap<Date, Integer> offered = new TreeMap<>();
+        NavigableMap<Date, Integer> used = new TreeMap<>();
+        for (int i = 0; i < days.length; i++) {
+            List<Window> patients = perDay.get(i);
+            patients.sort(Comparator.comparingInt(w -> w.request.getLine()));
+            for (int j = 0; j < patients.size(); j++) {
+                PlanRequest request = patients.get(j).request;
+                appointments.add(new Appointment(0, caregivers.get(i).get(j), request.getPatientUser(),
+                        request.getVaccineName(), days[i]));
+            }
+            offered.put(days[i], caregivers.get(i).size());
+            used.put(days[i], patients.size());
+        }
+
+        Map<PlanRequest, String> unplacedInOrder = new LinkedHashMap<>();
+        requests.stream().filter(unplaced::containsKey).forEach(r -> unplacedInOrder.put(r, unplaced.get(r)));
+        return new EventPlan(appointments, unplacedInOrder, offered, used);
+    }
+
+    // Glover's rule over one component; writes the day index, or -1, of each window into assigned. Components
+    // share no days and no windows, so they can be solved concurrently.
+    private void solve(List<Window> component, Set<Window> dropped, Map<Window, Integer> position, int[] assigned) {
+        PriorityQueue<Window> waiting = new PriorityQueue<>(
+                Comparator.comparingInt((Window w) -> w.last).thenComparingInt(w -> w.request.getLine()));
+        int next = 0;
+        int day = component.get(0).first;
+        while (next < component.size() || !waiting.isEmpty()) {
+            if (waiting.isEmpty() && component.get(next).first > day) {
+                day = component.get(next).first;
+            }
+            while (next < component.size() && component.get(next).first == day) {
+                Window window = component.get(next++);
+                assigned[position.get(window)] = -1;
+                if (!dropped.contains(window)) {
+                    waiting.add(window);
+                }
+            }
+            while (!waiting.isEmpty() && waiting.peek().last < day) {
+                waiting.poll();
+            }
+            for (int slot = 0; !waiting.isEmpty() && slot < caregivers.get(day).size(); slot++) {
+                assigned[position.get(waiting.poll())] = day;
+            }
+            day++;
+        }
+    }
+
+    private static class Window {
+        private final PlanRequest request;
+        // indexes into days, both inclusive
+        private final int first;
+        private final int last;
+        private int component;
+
+        private Window(PlanRequest request, int first, int last) {
+            this.request = request;
+            this.first = first;
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package scheduler.plan;
+
+import java.sql.Date;
+
+// One patient from a plan_event requests file: the vaccine they need and the days they can come, both inclusive
+public class PlanRequest {
+    private final int line;
+    private final String patientUser;
+    private final String vaccineName;
+    private final Date from;
+    private final Date to;
+
+    public PlanRequest(int line, String patientUser, String vaccineName, Date from, Date to) {
+        this.line = line;
+        this.patientUser = patientUser;
+        this.vaccineName = vaccineName;
+        this.from = from;
+        this.to = to;
+    }
+
+    // "<patient> <vaccine> <from> <to>"; returns null for blank and # comment lines, throws
+    // IllegalArgumentException for anything else that does not parse
+    public static PlanRequest parse(int line, String text) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        String[] fields = trimmed.split("\\s+");
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("expected <patient> <vaccine> <from> <to>");
+        }
+        Date from = parseDate("from", fields[2]);
+        Date to = parseDate("to", fields[3]);
+        if (to.before(from)) {
+            throw new IllegalArgumentException("the window ends before it starts");
+        }
+        return new PlanRequest(line, fields[0], fields[1], from, to);
+    }
+
+    private static Date parseDate(String field, String value) {
+        try {
+            return Date.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            // Date.valueOf says nothing about what was wrong
+            throw new IllegalArgumentException("<" + field + "> is not a yyyy-mm-dd date: " + value);
+        }
+    }
+
+    // Getters
+    public int getLine() {
+        return line;
+    }
+
+    public String getPatientUser() {
+        return patientUser;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+}
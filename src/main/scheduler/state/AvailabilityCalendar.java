@@ -0,0 +1,66 @@
+package scheduler.state;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-caregiver day bitmaps of Availabilities, so month views are a few bitwise operations per caregiver
+// instead of one search_caregiver_schedule per day
+public class AvailabilityCalendar {
+    private final Map<String, DayBitmap> caregivers = new ConcurrentHashMap<>();
+
+    public void load(Map<Date, ? extends Collection<String>> availabilities) {
+        caregivers.clear();
+        availabilities.forEach((d, names) -> {
+            for (String name : names) {
+                add(d, name);
+            }
+        });
+    }
+
+    public void add(Date d, String caregiver) {
+        caregivers.computeIfAbsent(caregiver, k -> new DayBitmap()).set(d.toLocalDate());
+    }
+
+    public void remove(Date d, String caregiver) {
+        DayBitmap days = caregivers.get(caregiver);
+        if (days != null) {
+            days.clear(d.toLocalDate());
+        }
+    }
+
+    // Days of the month on which at least one caregiver is available
+    public int anyAvailable(YearMonth month) {
+        int mask = 0;
+        for (DayBitmap days : caregivers.values()) {
+            mask |= days.month(month);
+        }
+        return mask;
+    }
+
+    // Days of the month on which every one of the given caregivers is available
+    public int allAvailable(YearMonth month, List<String> names) {
+        int mask = -1;
+        for (String name : names) {
+            DayBitmap days = caregivers.get(name);
+            if (days == null) {
+                return 0;
+            }
+            mask &= days.month(month);
+        }
+        return names.isEmpty() ? 0 : mask;
+    }
+
+    public static List<LocalDate> days(YearMonth month, int mask) {
+        List<LocalDate> days = new ArrayList<>();
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            days.add(month.atDay(Integer.numberOfTrailingZeros(bits) + 1));
+        }
+        return days;
+    }
+}
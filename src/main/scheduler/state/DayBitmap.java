@@ -0,0 +1,55 @@
+package scheduler.state;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+
+// Set of days stored as one 31-bit mask per month, for months that have at least one day set. The months are
+// kept in a sorted array, so a caregiver with a year of availability costs about a hundred bytes.
+public class DayBitmap {
+    private int[] months = new int[0];
+    private int[] masks = new int[0];
+    private int size = 0;
+
+    public static int monthKey(YearMonth month) {
+        return month.getYear() * 12 + month.getMonthValue() - 1;
+    }
+
+    public synchronized void set(LocalDate d) {
+        int key = monthKey(YearMonth.from(d));
+        int index = Arrays.binarySearch(months, 0, size, key);
+        if (index < 0) {
+            index = -index - 1;
+            if (size == months.length) {
+                months = Arrays.copyOf(months, Math.max(4, size * 2));
+                masks = Arrays.copyOf(masks, months.length);
+            }
+            System.arraycopy(months, index, months, index + 1, size - index);
+            System.arraycopy(masks, index, masks, index + 1, size - index);
+            months[index] = key;
+            masks[index] = 0;
+            size++;
+        }
+        masks[index] |= 1 << (d.getDayOfMonth() - 1);
+    }
+
+    public synchronized void clear(LocalDate d) {
+        int index = Arrays.binarySearch(months, 0, size, monthKey(YearMonth.from(d)));
+        if (index < 0) {
+            return;
+        }
+        masks[index] &= ~(1 << (d.getDayOfMonth() - 1));
+        // drop empty months so the bitmap stays as small as the availability it describes
+        if (masks[index] == 0) {
+            System.arraycopy(months, index + 1, months, index, size - index - 1);
+            System.arraycopy(masks, index + 1, masks, index, size - index - 1);
+            size--;
+        }
+    }
+
+    // Bit i is set if day i + 1 of the month is in the set
+    public synchronized int month(YearMonth month) {
+        int index = Arrays.binarySearch(months, 0, size, monthKey(month));
+        return index < 0 ? 0 : masks[index];
+    }
+}
@@ -0,0 +1,126 @@
+package scheduler.state;
+
+import scheduler.model.VaccineLot;
+
+import java.sql.Date;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Doses left per lot, so each reservation is drawn from the lot that expires first. The lots of a vaccine sit
+// in a skip list ordered by expiry and lot id; a dose is taken with a CAS on the lot's counter, so reserve never
+// blocks and needs no query to pick a lot. Lots that run out are dropped from the list. Doses added without a
+// lot are not tracked here.
+public class LotInventory {
+    // vaccine name -> lots with doses left, earliest expiry first
+    private final Map<String, NavigableSet<Lot>> lots = new ConcurrentHashMap<>();
+    // vaccine name -> lot id -> lot, including lots that ran out
+    private final Map<String, Map<String, Lot>> byId = new ConcurrentHashMap<>();
+
+    private static class Lot implements Comparable<Lot> {
+        private final String id;
+        private final Date expiry;
+        private final AtomicInteger doses = new AtomicInteger();
+
+        private Lot(String id, Date expiry) {
+            this.id = id;
+            this.expiry = expiry;
+        }
+
+        @Override
+        public int compareTo(Lot other) {
+            int byExpiry = expiry.compareTo(other.expiry);
+            return byExpiry != 0 ? byExpiry : id.compareTo(other.id);
+        }
+    }
+
+    public void load(Collection<VaccineLot> stored) {
+        lots.clear();
+        byId.clear();
+        for (VaccineLot lot : stored) {
+            add(lot.getVaccineName(), lot.getLot(), lot.getExpiry(), lot.getDoses());
+        }
+    }
+
+    // Adds doses to a lot, creating it if needed; the expiry of an existing lot is kept. num is negative for
+    // doses another instance took from it.
+    public void add(String vaccineName, String lotId, Date expiry, int num) {
+        Lot lot = byId.computeIfAbsent(vaccineName, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(lotId, k -> new Lot(lotId, expiry));
+        lot.doses.addAndGet(num);
+        NavigableSet<Lot> available = lots.computeIfAbsent(vaccineName, k -> new ConcurrentSkipListSet<>());
+        if (lot.doses.get() > 0) {
+            available.add(lot);
+        } else {
+            available.remove(lot);
+            // a release may have put a dose back after our decrement
+            if (lot.doses.get() > 0) {
+                available.add(lot);
+            }
+        }
+    }
+
+    // Takes one dose from the earliest-expiring lot that is still good on d. Returns the lot id, or null when no
+    // lot has a dose for that day.
+    public String allocate(String vaccineName, Date d) {
+        NavigableSet<Lot> available = lots.get(vaccineName);
+        if (available == null) {
+            return null;
+        }
+        for (Lot lot : available.tailSet(new Lot("", d), true)) {
+            if (takeOne(available, lot)) {
+                return lot.id;
+            }
+        }
+        return null;
+    }
+
+    // Whether any lot of the vaccine has doses left, good or not
+    public boolean hasDoses(String vaccineName) {
+        NavigableSet<Lot> available = lots.get(vaccineName);
+        return available != null && !available.isEmpty();
+    }
+
+    // Takes a dose from the given lot, for reservations that drew from it before a restart but have not reached
+    // the database yet
+    public void take(String vaccineName, String lotId) {
+        Lot lot = byId.getOrDefault(vaccineName, Map.of()).get(lotId);
+        NavigableSet<Lot> available = lots.get(vaccineName);
+        if (lot != null && available != null) {
+            takeOne(available, lot);
+        }
+    }
+
+    private static boolean takeOne(NavigableSet<Lot> available, Lot lot) {
+        int left = lot.doses.get();
+        while (left > 0) {
+            if (lot.doses.compareAndSet(left, left - 1)) {
+                if (left == 1) {
+                    available.remove(lot);
+                    // a release may have put a dose back after our decrement
+                    if (lot.doses.get() > 0) {
+                        available.add(lot);
+                    }
+                }
+                return true;
+            }
+            left = lot.doses.get();
+        }
+        return false;
+    }
+
+    // Gives back a dose taken by allocate when the reservation did not go through
+    public void release(String vaccineName, String lotId) {
+        if (lotId == null) {
+            return;
+        }
+        Lot lot = byId.getOrDefault(vaccineName, Map.of()).get(lotId);
+        if (lot != null) {
+            lot.doses.incrementAndGet();
+            lots.computeIfAbsent(vaccineName, k -> new ConcurrentSkipListSet<>()).add(lot);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package scheduler.state;
+
+import scheduler.model.Appointment;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded LRU of the reservations made with a request key, by patient and key, so a retried reserve is answered
+// without going to the database. With direct writes it is only a shortcut, since the ReserveRequests table still
+// catches retries whose key was pushed out or never seen by this instance. In write-behind mode it is the only
+// record until the flusher writes the key, and is refilled on restart from the reservations still in the journal.
+public class RequestKeyCache {
+    private final Map<String, Appointment> appointments;
+
+    public RequestKeyCache(int maxSize) {
+        this.appointments = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Appointment> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public synchronized Appointment get(String patientUser, String requestKey) {
+        return appointments.get(patientUser + " " + requestKey);
+    }
+
+    public synchronized void put(String patientUser, String requestKey, Appointment appointment) {
+        appointments.put(patientUser + " " + requestKey, appointment);
+    }
+}
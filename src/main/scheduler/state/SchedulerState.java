@@ -0,0 +1,211 @@
+package scheduler.state;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.Appointment;
+
+import java.nio.ByteBuffer;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+public class SchedulerState {
+    // vaccine name -> available doses
+    private final Map<String, Integer> doses = new ConcurrentHashMap<>();
+    // date -> caregivers available on that date, kept sorted so reserve picks the same caregiver as ORDER BY Username
+    private final Map<Date, NavigableSet<String>> availabilities = new ConcurrentHashMap<>();
+    // usernames known to exist; a miss still has to be confirmed against the database
+    private final Set<String> patients = ConcurrentHashMap.newKeySet();
+    private final Set<String> caregivers = ConcurrentHashMap.newKeySet();
+
+    // database position this state is current to: Availabilities rows with a newer rowversion and appointments
+    // with a larger ApptID are not reflected yet
+    private long rowVersion = 0;
+    private long lastApptId = 0;
+
+    public void load(ConnectionManager cm) throws SQLException {
+        doses.clear();
+        availabilities.clear();
+        patients.clear();
+        caregivers.clear();
+        rowVersion = 0;
+        lastApptId = 0;
+        reconcile(cm);
+
+        String getPatients = "SELECT Username FROM Patients";
+        try (ResultSet resultSet = cm.prepare(getPatients).executeQuery()) {
+            while (resultSet.next()) {
+                patients.add(resultSet.getString("Username"));
+            }
+        }
+        String getCaregivers = "SELECT Username FROM Caregivers";
+        try (ResultSet resultSet = cm.prepare(getCaregivers).executeQuery()) {
+            while (resultSet.next()) {
+                caregivers.add(resultSet.getString("Username"));
+            }
+        }
+    }
+
+    // Brings a state restored from a snapshot up to date by reading only the rows changed since it was taken.
+    // Usernames are not reconciled: a name missing here is looked up in the database before it is trusted.
+    public void reconcile(ConnectionManager cm) throws SQLException {
+        // read the new watermark first, so anything committed while the delta is read is picked up next time
+        long newRowVersion;
+        try (ResultSet resultSet = cm.prepare("SELECT MIN_ACTIVE_ROWVERSION() AS RowVer").executeQuery()) {
+            resultSet.next();
+            newRowVersion = ByteBuffer.wrap(resultSet.getBytes("RowVer")).getLong();
+        }
+
+        // Vaccines is a handful of rows, so it is always read in full
+        String getVaccines = "SELECT Name, Doses FROM Vaccines";
+        try (ResultSet resultSet = cm.prepare(getVaccines).executeQuery()) {
+            while (resultSet.next()) {
+                doses.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+            }
+        }
+        // every new appointment consumed an availability row, and a rowversion scan cannot see deletes
+        String getAppointments = "SELECT ApptID, CaregiverUser, ApptTime FROM Appointments WHERE ApptID > ?";
+        PreparedStatement statement = cm.prepare(getAppointments);
+        statement.setLong(1, lastApptId);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                removeAvailability(resultSet.getDate("ApptTime"), resultSet.getString("CaregiverUser"));
+                lastApptId = Math.max(lastApptId, resultSet.getLong("ApptID"));
+            }
+        }
+        // read after the appointments, so a slot that was booked and then uploaded again ends up available
+        String getAvailabilities = "SELECT Time, Username FROM Availabilities WHERE Changed >= ?";
+        PreparedStatement statementA = cm.prepare(getAvailabilities);
+        statementA.setBytes(1, toRowVersion(rowVersion));
+        try (ResultSet resultSet = statementA.executeQuery()) {
+            while (resultSet.next()) {
+                addAvailability(resultSet.getDate("Time"), resultSet.getString("Username"));
+            }
+        }
+        rowVersion = newRowVersion;
+    }
+
+    private static byte[] toRowVersion(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    public long getRowVersion() {
+        return rowVersion;
+    }
+
+    public long getLastApptId() {
+        return lastApptId;
+    }
+
+    void setWatermark(long rowVersion, long lastApptId) {
+        this.rowVersion = rowVersion;
+        this.lastApptId = lastApptId;
+    }
+
+    public Integer getDoses(String vaccineName) {
+        return doses.get(vaccineName);
+    }
+
+    public Map<String, Integer> getAllDoses() {
+        return doses;
+    }
+
+    public void setDoses(String vaccineName, int available) {
+        doses.put(vaccineName, available);
+    }
+
+    // synchronized like reserve, whose read-then-write of the same entry would otherwise lose the added doses
+    public synchronized void addDoses(String vaccineName, int num) {
+        doses.merge(vaccineName, num, Integer::sum);
+    }
+
+    public void addAvailability(Date d, String caregiver) {
+        availabilities.computeIfAbsent(d, k -> new ConcurrentSkipListSet<>()).add(caregiver);
+    }
+
+    public void removeAvailability(Date d, String caregiver) {
+        NavigableSet<String> caregivers = availabilities.get(d);
+        if (caregivers != null) {
+            caregivers.remove(caregiver);
+        }
+    }
+
+    public List<String> getAvailableCaregivers(Date d) {
+        NavigableSet<String> caregivers = availabilities.get(d);
+        return caregivers == null ? new ArrayList<>() : new ArrayList<>(caregivers);
+    }
+
+    public Map<Date, NavigableSet<String>> getAllAvailabilities() {
+        return availabilities;
+    }
+
+    public Set<String> getPatients() {
+        return patients;
+    }
+
+    public Set<String> getCaregivers() {
+        return caregivers;
+    }
+
+    // Takes one dose of the vaccine and the first free caregiver on the date as a single step.
+    // Returns the caregiver username, or throws if either is missing; nothing is changed on failure.
+    public synchronized String reserve(Date d, String vaccineName) {
+        Integer available = doses.get(vaccineName);
+        if (available == null || available <= 0) {
+            throw new IllegalStateException("Not enough available doses!");
+        }
+        NavigableSet<String> caregivers = availabilities.get(d);
+        String caregiver = caregivers == null ? null : caregivers.pollFirst();
+        if (caregiver == null) {
+            throw new IllegalStateException("No Caregiver is available!");
+        }
+        doses.put(vaccineName, available - 1);
+        return caregiver;
+    }
+
+    // Takes two doses, the first free caregiver on first and the first free caregiver on the earliest day from
+    // secondFrom to secondTo as a single step. Returns both appointments in date order, without IDs; nothing is
+    // changed on failure.
+    public synchronized List<Appointment> reserveSeries(Date first, Date secondFrom, Date secondTo,
+                                                        String vaccineName, String patientUser) {
+        Integer available = doses.get(vaccineName);
+        if (available == null || available < 2) {
+            throw new IllegalStateException("Not enough available doses!");
+        }
+        NavigableSet<String> firstCaregivers = availabilities.get(first);
+        if (firstCaregivers == null || firstCaregivers.isEmpty()) {
+            throw new IllegalStateException("No Caregiver is available!");
+        }
+        Date secondDay = null;
+        NavigableSet<String> secondCaregivers = null;
+        for (LocalDate day = secondFrom.toLocalDate(); !day.isAfter(secondTo.toLocalDate()); day = day.plusDays(1)) {
+            secondCaregivers = availabilities.get(Date.valueOf(day));
+            if (secondCaregivers != null && !secondCaregivers.isEmpty()) {
+                secondDay = Date.valueOf(day);
+                break;
+            }
+        }
+        if (secondDay == null) {
+            throw new IllegalStateException("No Caregiver is available for the second dose!");
+        }
+        doses.put(vaccineName, available - 2);
+        List<Appointment> series = new ArrayList<>();
+        series.add(new Appointment(0, firstCaregivers.pollFirst(), patientUser, vaccineName, first));
+        series.add(new Appointment(0, secondCaregivers.pollFirst(), patientUser, vaccineName, secondDay));
+        return series;
+    }
+
+    // Re-applies a reservation that was acknowledged but not yet written to the database
+    public synchronized void apply(Date d, String vaccineName, String caregiver) {
+        doses.computeIfPresent(vaccineName, (k, v) -> v - 1);
+        removeAvailability(d, caregiver);
+    }
+}
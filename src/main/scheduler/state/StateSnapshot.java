@@ -0,0 +1,160 @@
+package scheduler.state;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// Compact binary image of a SchedulerState, so a restart only has to read the rows changed since it was written.
+// Layout (big-endian): magic, format version, row version and last ApptID watermarks, then the vaccines,
+// availabilities grouped by day, patient and caregiver usernames, and a trailing crc32 of everything before it.
+// Strings are a 2 byte length followed by UTF-8 bytes.
+public class StateSnapshot {
+    private static final int MAGIC = 0x56535331;
+    private static final int FORMAT_VERSION = 1;
+
+    // Writes to a temporary file first and renames it, so a crash never leaves a half-written snapshot behind
+    public static void write(SchedulerState state, Path file) throws IOException {
+        Map<String, Integer> doses;
+        Map<Long, List<String>> availabilities = new HashMap<>();
+        List<String> patients;
+        List<String> caregivers;
+        long rowVersion;
+        long lastApptId;
+        // reserve holds the same lock while it journals, so the copy never contains a half-finished reservation
+        synchronized (state) {
+            doses = new HashMap<>(state.getAllDoses());
+            state.getAllAvailabilities().forEach((d, names) -> {
+                if (!names.isEmpty()) {
+                    availabilities.put(d.toLocalDate().toEpochDay(), new ArrayList<>(names));
+                }
+            });
+            patients = new ArrayList<>(state.getPatients());
+            caregivers = new ArrayList<>(state.getCaregivers());
+            rowVersion = state.getRowVersion();
+            lastApptId = state.getLastApptId();
+        }
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream os = Files.newOutputStream(tmp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(os, 1 << 16), crc);
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(rowVersion);
+            out.writeLong(lastApptId);
+            out.writeInt(doses.size());
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+            out.writeInt(availabilities.size());
+            for (Map.Entry<Long, List<String>> entry : availabilities.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (String name : entry.getValue()) {
+                    writeString(out, name);
+                }
+            }
+            writeStrings(out, patients);
+            writeStrings(out, caregivers);
+            out.flush();
+            // the checksum itself is written past the CheckedOutputStream
+            DataOutputStream trailer = new DataOutputStream(os);
+            trailer.writeInt((int) crc.getValue());
+            trailer.flush();
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Maps the snapshot into memory and rebuilds the state; returns null if there is no usable snapshot
+    public static SchedulerState read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 28 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            ByteBuffer body = buffer.slice(0, (int) size - 4);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buffer.getInt((int) size - 4)) {
+                return null;
+            }
+            if (body.getInt() != MAGIC || body.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            SchedulerState state = new SchedulerState();
+            long rowVersion = body.getLong();
+            long lastApptId = body.getLong();
+            int vaccineCount = body.getInt();
+            for (int i = 0; i < vaccineCount; i++) {
+                String name = readString(body);
+                state.setDoses(name, body.getInt());
+            }
+            int dayCount = body.getInt();
+            for (int i = 0; i < dayCount; i++) {
+                Date d = Date.valueOf(LocalDate.ofEpochDay(body.getLong()));
+                int nameCount = body.getInt();
+                for (int j = 0; j < nameCount; j++) {
+                    state.addAvailability(d, readString(body));
+                }
+            }
+            int patientCount = body.getInt();
+            for (int i = 0; i < patientCount; i++) {
+                state.getPatients().add(readString(body));
+            }
+            int caregiverCount = body.getInt();
+            for (int i = 0; i < caregiverCount; i++) {
+                state.getCaregivers().add(readString(body));
+            }
+            state.setWatermark(rowVersion, lastApptId);
+            return state;
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getShort() & 0xFFFF];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+package scheduler.stats;
+
+import scheduler.audit.EventLog;
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Per-day booking counters kept up to date by reserve and add_doses, so reports cost O(days) instead of a scan
+// of Appointments. Increments are also collected as deltas and added to the BookingStats table by flush().
+public class BookingStats {
+    public static final String BOOKED = "booked";
+    public static final String CAREGIVER = "caregiver";
+    public static final String ADDED = "added";
+
+    // day -> kind -> name -> count
+    private final NavigableMap<Date, Map<String, Map<String, LongAdder>>> totals = new ConcurrentSkipListMap<>();
+    private final NavigableMap<Date, Map<String, Map<String, LongAdder>>> pending = new ConcurrentSkipListMap<>();
+    // increments share it, flush takes it alone to drain pending and drop the drained days, so no increment lands
+    // in a counter that has just been dropped
+    private final ReadWriteLock pendingLock = new ReentrantReadWriteLock();
+
+    public void load() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLTransientConnectionException("No connection");
+        }
+
+        String getStats = "SELECT Day, Kind, Name, Count FROM BookingStats";
+        try {
+            PreparedStatement statement = cm.prepare(getStats);
+            ResultSet resultSet = statement.executeQuery();
+            totals.clear();
+            while (resultSet.next()) {
+                counter(totals, resultSet.getDate("Day"), resultSet.getString("Kind"), resultSet.getString("Name"))
+                        .add(resultSet.getLong("Count"));
+            }
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    public void recordBooking(Date d, String vaccineName, String caregiverUser) {
+        increment(d, BOOKED, vaccineName, 1);
+        increment(d, CAREGIVER, caregiverUser, 1);
+    }
+
+    public void recordDosesAdded(Date d, String vaccineName, int doses) {
+        increment(d, ADDED, vaccineName, doses);
+    }
+
+    private void increment(Date d, String kind, String name, long num) {
+        counter(totals, d, kind, name).add(num);
+        addPending(d, kind, name, num);
+    }
+
+    private void addPending(Date d, String kind, String name, long num) {
+        pendingLock.readLock().lock();
+        try {
+            counter(pending, d, kind, name).add(num);
+        } finally {
+            pendingLock.readLock().unlock();
+        }
+    }
+
+    private static LongAdder counter(NavigableMap<Date, Map<String, Map<String, LongAdder>>> counters, Date d,
+                                     String kind, String name) {
+        return counters.computeIfAbsent(d, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(kind, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    // Returns the counters for every day in [from, to], in date order
+    public NavigableMap<Date, Map<String, Map<String, LongAdder>>> range(Date from, Date to) {
+        return totals.subMap(from, true, to, true);
+    }
+
+    // Adds the increments collected since the last flush to BookingStats in one transaction; HOLDLOCK keeps two
+    // processes from both inserting a row that neither has yet
+    public synchronized void flush() throws SQLException {
+        List<Object[]> deltas = new ArrayList<>();
+        pendingLock.writeLock().lock();
+        try {
+            for (Map.Entry<Date, Map<String, Map<String, LongAdder>>> day : pending.entrySet()) {
+                for (Map.Entry<String, Map<String, LongAdder>> kind : day.getValue().entrySet()) {
+                    for (Map.Entry<String, LongAdder> name : kind.getValue().entrySet()) {
+                        long delta = name.getValue().sum();
+                        if (delta != 0) {
+                            deltas.add(new Object[]{day.getKey(), kind.getKey(), name.getKey(), delta});
+                        }
+                    }
+                }
+            }
+            // every counter is drained now, so only days booked after this flush are kept
+            pending.clear();
+        } finally {
+            pendingLock.writeLock().unlock();
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            restore(deltas);
+            throw new SQLTransientConnectionException("No connection");
+        }
+
+        String mergeStats = "MERGE BookingStats WITH (HOLDLOCK) AS t "
+                + "USING (VALUES (?, ?, ?, ?)) AS s (Day, Kind, Name, Delta) "
+                + "ON t.Day = s.Day AND t.Kind = s.Kind AND t.Name = s.Name "
+                + "WHEN MATCHED THEN UPDATE SET Count = t.Count + s.Delta "
+                + "WHEN NOT MATCHED THEN INSERT (Day, Kind, Name, Count) VALUES (s.Day, s.Kind, s.Name, s.Delta);";
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepare(mergeStats);
+            for (Object[] delta : deltas) {
+                statement.setDate(1, (Date) delta[0]);
+                statement.setString(2, (String) delta[1]);
+                statement.setString(3, (String) delta[2]);
+                statement.setLong(4, (Long) delta[3]);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            con.commit();
+        } catch (SQLException e) {
+            try {
+                con.rollback();
+                restore(deltas);
+            } catch (SQLException rollbackFailure) {
+                // the commit may have gone through; losing the deltas is better than counting them twice
+                EventLog.error("stats", rollbackFailure);
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Puts unsaved deltas back so the next flush retries them
+    private void restore(List<Object[]> deltas) {
+        for (Object[] delta : deltas) {
+            addPending((Date) delta[0], (String) delta[1], (String) delta[2], (Long) delta[3]);
+        }
+    }
+}
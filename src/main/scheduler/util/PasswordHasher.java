@@ -0,0 +1,175 @@
+package scheduler.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Password hashing on a small dedicated pool, so a burst of logins and signups queues up behind HashThreads
+// threads instead of taking every CPU from the other commands. When the queue is full the request is turned
+// down with IllegalStateException.
+//
+// Hashes are stored with a version string "<algorithm>:<iterations>:<key bits>", which is all that is needed
+// to check them later. New hashes use PBKDF2-HMAC-SHA256 with the iteration count calibrated at startup to
+// take about HashTargetMillis (default 50) on this machine, unless HashIterations pins it. Rows from before
+// hashes were versioned have no version and use LEGACY_VERSION.
+public class PasswordHasher {
+    public static final String LEGACY_VERSION = "pbkdf2-sha1:10:16";
+
+    private static final String CURRENT_ALGORITHM = "pbkdf2-sha256";
+    private static final int CURRENT_KEY_BITS = 256;
+    private static final int MIN_ITERATIONS = 10_000;
+    private static final int MAX_ITERATIONS = 5_000_000;
+    private static final int QUEUE_SIZE = 64;
+
+    private static PasswordHasher instance = null;
+
+    // each worker keeps its own factories instead of looking one up per hash
+    private static final ThreadLocal<Map<String, SecretKeyFactory>> factories =
+            ThreadLocal.withInitial(HashMap::new);
+
+    private final ThreadPoolExecutor executor;
+    private final int iterations;
+    private final String currentVersion;
+
+    private PasswordHasher(int threads, int iterations) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+                    Thread thread = new Thread(r, "password-hasher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.iterations = iterations;
+        this.currentVersion = CURRENT_ALGORITHM + ":" + iterations + ":" + CURRENT_KEY_BITS;
+    }
+
+    // Calibrates on first use; Scheduler.start() calls this so the first signup does not pay for it
+    public static synchronized PasswordHasher getInstance() {
+        if (instance == null) {
+            int threads = System.getenv("HashThreads") != null ? Integer.parseInt(System.getenv("HashThreads")) :
+                    Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            int iterations;
+            if (System.getenv("HashIterations") != null) {
+                iterations = Integer.parseInt(System.getenv("HashIterations"));
+            } else {
+                long target = System.getenv("HashTargetMillis") != null ?
+                        Long.parseLong(System.getenv("HashTargetMillis")) : 50;
+                iterations = calibrate(target);
+            }
+            instance = new PasswordHasher(threads, iterations);
+        }
+        return instance;
+    }
+
+    public String getCurrentVersion() {
+        return currentVersion;
+    }
+
+    // Hashes with the current parameters; store the result with getCurrentVersion()
+    public byte[] hash(String password, byte[] salt) {
+        return submit(() -> derive(CURRENT_ALGORITHM, password, salt, iterations, CURRENT_KEY_BITS));
+    }
+
+    public boolean verify(String password, byte[] salt, byte[] stored, String version) {
+        String[] parts = (version == null ? LEGACY_VERSION : version).split(":");
+        String algorithm = parts[0];
+        int storedIterations = Integer.parseInt(parts[1]);
+        int keyBits = Integer.parseInt(parts[2]);
+        byte[] calculated = submit(() -> derive(algorithm, password, salt, storedIterations, keyBits));
+        if (version == null) {
+            // legacy hashes sat in a BINARY(16) column and are compared without their zero padding
+            return MessageDigest.isEqual(Util.trim(stored), Util.trim(calculated));
+        }
+        return MessageDigest.isEqual(stored, calculated);
+    }
+
+    // Whether a hash stored with this version is weaker than what new hashes get. Another instance may have
+    // calibrated higher on faster hardware; those hashes are left alone rather than downgraded.
+    public boolean needsRehash(String version) {
+        if (version == null) {
+            return true;
+        }
+        String[] parts = version.split(":");
+        return !parts[0].equals(CURRENT_ALGORITHM) || Integer.parseInt(parts[1]) < iterations
+                || Integer.parseInt(parts[2]) < CURRENT_KEY_BITS;
+    }
+
+    private byte[] submit(Callable<byte[]> task) {
+        Future<byte[]> result;
+        try {
+            result = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("Too many logins in progress, please try again!");
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Please try again!");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static byte[] derive(String algorithm, String password, byte[] salt, int iterations, int keyBits) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyBits);
+        try {
+            SecretKeyFactory factory = factories.get().get(algorithm);
+            if (factory == null) {
+                factory = SecretKeyFactory.getInstance(javaName(algorithm));
+                factories.get().put(algorithm, factory);
+            }
+            return factory.generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String javaName(String algorithm) throws NoSuchAlgorithmException {
+        switch (algorithm) {
+            case "pbkdf2-sha1":
+                return "PBKDF2WithHmacSHA1";
+            case "pbkdf2-sha256":
+                return "PBKDF2WithHmacSHA256";
+            default:
+                throw new NoSuchAlgorithmException(algorithm);
+        }
+    }
+
+    // PBKDF2 cost is linear in the iteration count, so time the minimum count and scale it to targetMillis,
+    // rounded down to a multiple of 1000 so restarts on the same machine usually land on the same version
+    private static int calibrate(long targetMillis) {
+        // warm up for a while, so the measurement is of compiled code rather than the interpreter
+        long warmUpEnd = System.nanoTime() + 300_000_000L;
+        while (System.nanoTime() < warmUpEnd) {
+            time(MIN_ITERATIONS);
+        }
+        // the fastest of many runs, so a pause elsewhere in the process does not skew it
+        double fastest = Double.MAX_VALUE;
+        long sampleEnd = System.nanoTime() + 200_000_000L;
+        for (int runs = 0; runs < 3 || System.nanoTime() < sampleEnd; runs++) {
+            fastest = Math.min(fastest, time(MIN_ITERATIONS));
+        }
+        long scaled = (long) (MIN_ITERATIONS * (targetMillis / Math.max(fastest, 0.01)));
+        int iterations = (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, scaled));
+        return Math.max(MIN_ITERATIONS, iterations / 1000 * 1000);
+    }
+
+    private static double time(int iterations) {
+        long start = System.nanoTime();
+        derive(CURRENT_ALGORITHM, "calibration", new byte[16], iterations, CURRENT_KEY_BITS);
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
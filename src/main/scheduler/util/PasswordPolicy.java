@@ -0,0 +1,81 @@
+package scheduler.util;
+
+// Signup password rules, set up once and checked with a single pass over the password. check() returns a bit
+// per rule that passed, so the common case of a good password allocates nothing.
+public class PasswordPolicy {
+    public static final PasswordPolicy DEFAULT = new PasswordPolicy(8, "!@#$?");
+
+    private static final int LENGTH = 1;
+    private static final int MIXED_CASE = 1 << 1;
+    private static final int LETTERS_AND_DIGITS = 1 << 2;
+    private static final int SPECIAL = 1 << 3;
+    private static final int ALL = LENGTH | MIXED_CASE | LETTERS_AND_DIGITS | SPECIAL;
+
+    private final int minLength;
+    private final boolean[] specials = new boolean[128];
+    private final String[] descriptions;
+
+    public PasswordPolicy(int minLength, String specialCharacters) {
+        this.minLength = minLength;
+        StringBuilder listed = new StringBuilder();
+        for (int i = 0; i < specialCharacters.length(); i++) {
+            char c = specialCharacters.charAt(i);
+            specials[c] = true;
+            listed.append(i == 0 ? "" : ", ").append('\'').append(c).append('\'');
+        }
+        this.descriptions = new String[]{
+                "Password is at least " + minLength + " characters: ",
+                "Password contains both uppercase and lowercase letters: ",
+                "Password contains a mixture of letters and numbers: ",
+                "Password includes at least one special character, from " + listed + ": "};
+    }
+
+    public int check(String password) {
+        boolean upper = false;
+        boolean lower = false;
+        boolean digit = false;
+        boolean special = false;
+        for (int i = 0; i < password.length(); i++) {
+            char c = password.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                upper = true;
+            } else if (c >= 'a' && c <= 'z') {
+                lower = true;
+            } else if (c >= '0' && c <= '9') {
+                digit = true;
+            } else if (c < specials.length && specials[c]) {
+                special = true;
+            }
+        }
+        int passed = 0;
+        if (password.length() >= minLength) {
+            passed |= LENGTH;
+        }
+        if (upper && lower) {
+            passed |= MIXED_CASE;
+        }
+        if ((upper || lower) && digit) {
+            passed |= LETTERS_AND_DIGITS;
+        }
+        if (special) {
+            passed |= SPECIAL;
+        }
+        return passed;
+    }
+
+    public static boolean isSatisfied(int passed) {
+        return passed == ALL;
+    }
+
+    // One "rule: Yes/No" line per rule, shown when a signup is turned down
+    public String report(int passed) {
+        StringBuilder report = new StringBuilder(256);
+        for (int i = 0; i < descriptions.length; i++) {
+            if (i > 0) {
+                report.append('\n');
+            }
+            report.append(descriptions[i]).append((passed & (1 << i)) != 0 ? "Yes" : "No");
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package scheduler.archive;
+
+import scheduler.model.Appointment;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Run with: java -cp <classes> scheduler.archive.AppointmentArchiveTest
+public class AppointmentArchiveTest {
+    private static final Date FROM = Date.valueOf("2026-01-01");
+    private static final Date TO = Date.valueOf("2026-12-31");
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("archive-test");
+        try {
+            findsAcrossMonthsAndBlocks(dir.resolve("months"));
+            skipsAndCutsOffATornBlock(dir.resolve("torn"));
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+        System.out.println("AppointmentArchiveTest passed");
+    }
+
+    private static void findsAcrossMonthsAndBlocks(Path dir) throws IOException {
+        AppointmentArchive archive = new AppointmentArchive(dir);
+        archive.append(List.of(
+                new Appointment(1, "c1", "p1", "Pfizer", Date.valueOf("2026-01-31"), "L1"),
+                new Appointment(2, "c2", "p1", "Moderna", Date.valueOf("2026-02-01")),
+                new Appointment(3, "c1", "p2", "Pfizer", Date.valueOf("2026-02-14"), "L2")));
+        // appended again after a run that stopped before deleting it, plus a new one
+        archive.append(List.of(
+                new Appointment(3, "c1", "p2", "Pfizer", Date.valueOf("2026-02-14"), "L2"),
+                new Appointment(4, "c1", "p1", "Pfizer", Date.valueOf("2026-03-01"))));
+
+        List<Appointment> byCaregiver = archive.findByCaregiver("c1", FROM, TO);
+        check(byCaregiver.size() == 3, "a re-archived appointment is returned once");
+        check(byCaregiver.get(0).getApptId() == 1 && byCaregiver.get(2).getApptId() == 4, "lowest ApptID first");
+        Appointment first = byCaregiver.get(0);
+        check(first.getPatientUser().equals("p1") && first.getVaccineName().equals("Pfizer")
+                && first.getApptTime().equals(Date.valueOf("2026-01-31")) && "L1".equals(first.getLot()),
+                "all columns round trip");
+        check(archive.findByPatient("p1", FROM, TO).size() == 3, "by patient");
+        check(archive.findByPatient("p1", Date.valueOf("2026-02-01"), Date.valueOf("2026-02-28")).size() == 1,
+                "the range is applied to the day, not just the month");
+        check(archive.findByPatient("p1", FROM, TO).get(1).getLot() == null, "no lot");
+        check(archive.findByCaregiver("nobody", FROM, TO).isEmpty(), "unknown user");
+    }
+
+    private static void skipsAndCutsOffATornBlock(Path dir) throws IOException {
+        new AppointmentArchive(dir).append(List.of(
+                new Appointment(1, "c1", "p1", "Pfizer", Date.valueOf("2026-05-01"))));
+        Path file;
+        try (Stream<Path> files = Files.list(dir)) {
+            file = files.findFirst().orElseThrow();
+        }
+        Files.write(file, new byte[] {0x56, 0x53, 0x41}, StandardOpenOption.APPEND);
+        AppointmentArchive archive = new AppointmentArchive(dir);
+        check(archive.findByCaregiver("c1", FROM, TO).size() == 1, "the torn tail is ignored");
+        archive.append(List.of(new Appointment(2, "c1", "p2", "Pfizer", Date.valueOf("2026-05-02"))));
+        archive.append(List.of(new Appointment(3, "c1", "p3", "Pfizer", Date.valueOf("2026-05-03"))));
+        check(archive.findByCaregiver("c1", FROM, TO).size() == 3, "later blocks are readable after the cut");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package scheduler.command;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Run with: java -cp <classes> scheduler.command.CommandRegistryTest
+public class CommandRegistryTest {
+    public static void main(String[] args) {
+        tokenizesOnRunsOfWhitespace();
+        keepsCommandsInRegistrationOrder();
+        System.out.println("CommandRegistryTest passed");
+    }
+
+    private static void tokenizesOnRunsOfWhitespace() {
+        check(tokens("reserve 2026-03-02 Pfizer"), "reserve", "2026-03-02", "Pfizer");
+        check(tokens("  reserve\t 2026-03-02   Pfizer  "), "reserve", "2026-03-02", "Pfizer");
+        check(tokens("logout"), "logout");
+        check(tokens("a b c d e f g h i j"), "a", "b", "c", "d", "e", "f", "g", "h", "i", "j");
+        check(tokens("a b c d"), "a", "b", "c", "d");
+        check(tokens(""));
+        check(tokens(" \t "));
+        check(tokens(null));
+    }
+
+    private static void keepsCommandsInRegistrationOrder() {
+        CommandRegistry registry = new CommandRegistry();
+        Command quit = new Command("quit", "quit", 1, 1, Role.ANYONE, "Please try again!", tokens -> { });
+        Command logout = new Command("logout", "logout", 1, 1, Role.LOGGED_IN, "Please try again!", tokens -> { });
+        registry.register(quit);
+        registry.register(logout);
+        check(registry.find("logout") == logout && registry.find("cancel") == null, "find by name");
+        check(List.copyOf(registry.getCommands()).equals(List.of(quit, logout)), "registration order");
+        try {
+            registry.register(new Command("quit", "quit", 1, 1, Role.ANYONE, "", tokens -> { }));
+            throw new AssertionError("a second quit was accepted");
+        } catch (IllegalArgumentException e) {
+            check(registry.find("quit") == quit, "the first registration is kept");
+        }
+    }
+
+    private static String[] tokens(String line) {
+        return CommandRegistry.tokenize(line);
+    }
+
+    private static void check(String[] actual, String... expected) {
+        if (!Arrays.equals(actual, expected)) {
+            throw new AssertionError("expected " + Arrays.toString(expected) + ", got " + Arrays.toString(actual));
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
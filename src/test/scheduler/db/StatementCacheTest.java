@@ -0,0 +1,91 @@
+package scheduler.db;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Run with: java -cp <classes> scheduler.db.StatementCacheTest
+public class StatementCacheTest {
+    public static void main(String[] args) throws SQLException {
+        reusesAndEvictsTheLeastRecentlyUsed();
+        preparesAgainWhenTheCallerClosedIt();
+        System.out.println("StatementCacheTest passed");
+    }
+
+    private static void reusesAndEvictsTheLeastRecentlyUsed() throws SQLException {
+        FakeConnection con = new FakeConnection();
+        StatementCache cache = new StatementCache(con.proxy(), 2);
+        long hits = StatementCache.getHits();
+        long misses = StatementCache.getMisses();
+        long evictions = StatementCache.getEvictions();
+
+        PreparedStatement a = cache.get("a");
+        PreparedStatement b = cache.get("b");
+        check(cache.get("a") == a, "a hit returns the same statement");
+        check(con.clearedBatches.contains(a), "a reused statement starts with an empty batch");
+        // a was used last, so b is the one to go
+        cache.get("c");
+        check(con.closed.contains(b) && !con.closed.contains(a), "the least recently used is closed");
+        check(cache.get("a") == a, "a is still cached");
+        check(cache.get("b") != b, "b is prepared again");
+        check(con.prepared.size() == 4, "four prepares");
+        check(StatementCache.getHits() - hits == 2 && StatementCache.getMisses() - misses == 4
+                && StatementCache.getEvictions() - evictions == 2, "counters");
+
+        cache.closeAll();
+        check(con.closed.size() == con.prepared.size(), "closeAll closes everything still cached");
+    }
+
+    private static void preparesAgainWhenTheCallerClosedIt() throws SQLException {
+        FakeConnection con = new FakeConnection();
+        StatementCache cache = new StatementCache(con.proxy(), 4);
+        PreparedStatement a = cache.get("a");
+        a.close();
+        PreparedStatement again = cache.get("a");
+        check(again != a && !con.closed.contains(again), "a closed statement is replaced");
+    }
+
+    // Hands out statements that only remember whether they were closed or had their batch cleared
+    private static class FakeConnection {
+        private final List<PreparedStatement> prepared = new ArrayList<>();
+        private final Set<PreparedStatement> closed = new HashSet<>();
+        private final Set<PreparedStatement> clearedBatches = new HashSet<>();
+
+        private Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> {
+                        if (!method.getName().equals("prepareStatement")) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        PreparedStatement statement = statement();
+                        prepared.add(statement);
+                        return statement;
+                    });
+        }
+
+        private PreparedStatement statement() {
+            PreparedStatement[] self = new PreparedStatement[1];
+            self[0] = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> switch (method.getName()) {
+                        case "close" -> closed.add(self[0]);
+                        case "isClosed" -> closed.contains(self[0]);
+                        case "clearBatch" -> clearedBatches.add(self[0]);
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "equals" -> proxy == args[0];
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+            return self[0];
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
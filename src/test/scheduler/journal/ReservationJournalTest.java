@@ -0,0 +1,170 @@
+package scheduler.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Run with: java -cp <classes> scheduler.journal.ReservationJournalTest
+public class ReservationJournalTest {
+    private static final int SIZE = 4096;
+    private static final Date DAY = Date.valueOf("2026-03-02");
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("journal-test");
+        try {
+            replaysWhatWasNotFlushed(dir.resolve("replay.journal"));
+            rewindsOnlyWhenFullyFlushed(dir.resolve("rewind.journal"));
+            stopsAtATornRecord(dir.resolve("torn.journal"));
+            readsRecordsWrittenBeforeLotsAndKeys(dir.resolve("old.journal"));
+            refusesToOverfill(dir.resolve("full.journal"));
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+        System.out.println("ReservationJournalTest passed");
+    }
+
+    private static void replaysWhatWasNotFlushed(Path file) throws IOException {
+        ReservationJournal journal = new ReservationJournal(file, SIZE);
+        int id = journal.getId();
+        check(id != 0, "a new journal gets an id");
+        journal.replay(0);
+        journal.append("c1", "p1", "Pfizer", DAY, "L1", "key-1");
+        journal.append("c2", "p2", "Moderna", DAY, null, null);
+        journal.append("c3", "p3", "Pfizer", DAY, null, "key-3");
+        journal.close();
+
+        journal = new ReservationJournal(file, SIZE);
+        check(journal.getId() == id, "the id is kept");
+        List<JournalRecord> pending = journal.replay(0);
+        check(pending.size() == 3, "everything is pending");
+        JournalRecord first = pending.get(0);
+        check(first.getSeq() == 1 && first.getCaregiverUser().equals("c1") && first.getPatientUser().equals("p1")
+                && first.getVaccineName().equals("Pfizer") && first.getApptTime().equals(DAY)
+                && "L1".equals(first.getLot()) && "key-1".equals(first.getRequestKey()), "all fields round trip");
+        check(pending.get(1).getLot() == null && pending.get(1).getRequestKey() == null, "no lot and no key");
+        check(pending.get(2).getLot() == null && "key-3".equals(pending.get(2).getRequestKey()),
+                "a key without a lot");
+        check(journal.getLastSeq() == 3, "sequence numbers are restored");
+        check(journal.append("c4", "p4", "Pfizer", DAY, null, null).getSeq() == 4, "and continue");
+        journal.close();
+
+        // the database already has the first two, whatever the header says
+        journal = new ReservationJournal(file, SIZE);
+        pending = journal.replay(2);
+        check(pending.size() == 2 && pending.get(0).getSeq() == 3, "the database watermark is applied");
+        journal.close();
+    }
+
+    private static void rewindsOnlyWhenFullyFlushed(Path file) throws IOException {
+        ReservationJournal journal = new ReservationJournal(file, SIZE);
+        journal.replay(0);
+        journal.append("c1", "p1", "Pfizer", DAY, null, null);
+        journal.append("c2", "p2", "Pfizer", DAY, null, null);
+        journal.markFlushed(1);
+        check(journal.getFlushedSeq() == 1, "the header moves");
+        journal.close();
+
+        journal = new ReservationJournal(file, SIZE);
+        List<JournalRecord> pending = journal.replay(0);
+        check(pending.size() == 1 && pending.get(0).getSeq() == 2, "a partial flush keeps the rest");
+        journal.markFlushed(2);
+        journal.append("c3", "p3", "Pfizer", DAY, null, null);
+        journal.close();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer seq = ByteBuffer.allocate(8);
+            channel.read(seq, 16 + 4);
+            check(seq.getLong(0) == 3, "a full flush rewinds the journal");
+        }
+        journal = new ReservationJournal(file, SIZE);
+        pending = journal.replay(0);
+        check(pending.size() == 1 && pending.get(0).getSeq() == 3, "only the new record is pending");
+        check(journal.getLastSeq() == 3, "numbering carries on after a rewind");
+        journal.close();
+    }
+
+    private static void stopsAtATornRecord(Path file) throws IOException {
+        ReservationJournal journal = new ReservationJournal(file, SIZE);
+        journal.replay(0);
+        journal.append("c1", "p1", "Pfizer", DAY, null, null);
+        journal.append("c2", "p2", "Pfizer", DAY, null, null);
+        journal.close();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 16);
+            long second = 16 + 4 + length.getInt(0) + 4;
+            // one byte of the second record's body, as if the write had been cut short
+            channel.write(ByteBuffer.wrap(new byte[] {0x7F}), second + 4 + 8);
+        }
+        journal = new ReservationJournal(file, SIZE);
+        List<JournalRecord> pending = journal.replay(0);
+        check(pending.size() == 1 && pending.get(0).getSeq() == 1, "replay stops at the bad checksum");
+        check(journal.append("c3", "p3", "Pfizer", DAY, null, null).getSeq() == 2, "and writes over it");
+        journal.close();
+    }
+
+    private static void readsRecordsWrittenBeforeLotsAndKeys(Path file) throws IOException {
+        new ReservationJournal(file, SIZE).close();
+        byte[] caregiver = "c1".getBytes(StandardCharsets.UTF_8);
+        byte[] patient = "p1".getBytes(StandardCharsets.UTF_8);
+        byte[] vaccine = "Pfizer".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(8 + 8 + 6 + caregiver.length + patient.length + vaccine.length);
+        body.putLong(1).putLong(DAY.toLocalDate().toEpochDay());
+        body.putShort((short) caregiver.length).put(caregiver);
+        body.putShort((short) patient.length).put(patient);
+        body.putShort((short) vaccine.length).put(vaccine);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        ByteBuffer record = ByteBuffer.allocate(4 + body.capacity() + 4 + 4);
+        record.putInt(body.capacity()).put(body.array()).putInt((int) crc.getValue()).putInt(0);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(record.flip(), 16);
+        }
+
+        ReservationJournal journal = new ReservationJournal(file, SIZE);
+        List<JournalRecord> pending = journal.replay(0);
+        check(pending.size() == 1, "the old record is read");
+        check(pending.get(0).getVaccineName().equals("Pfizer") && pending.get(0).getLot() == null
+                && pending.get(0).getRequestKey() == null, "with no lot and no key");
+        journal.close();
+    }
+
+    private static void refusesToOverfill(Path file) throws IOException {
+        ReservationJournal journal = new ReservationJournal(file, 256);
+        journal.replay(0);
+        int appended = 0;
+        try {
+            while (true) {
+                journal.append("caregiver", "patient", "Pfizer", DAY, "lot", null);
+                appended++;
+            }
+        } catch (IOException e) {
+            check(appended > 0, "some records fit");
+        }
+        check(journal.getLastSeq() == appended, "the refused record takes no sequence number");
+        journal.close();
+        journal = new ReservationJournal(file, 256);
+        check(journal.replay(0).size() == appended, "everything that fit is replayed");
+        journal.close();
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package scheduler.plan;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Run with: java -cp <classes> scheduler.plan.EventPlannerTest
+public class EventPlannerTest {
+    private static final Date MON = Date.valueOf("2026-03-02");
+    private static final Date TUE = Date.valueOf("2026-03-03");
+    private static final Date WED = Date.valueOf("2026-03-04");
+    private static final Date FRI = Date.valueOf("2026-03-06");
+
+    public static void main(String[] args) {
+        placesTheTightestWindowFirst();
+        keepsComponentsApart();
+        dropsTheLatestRequestsWhenDosesRunOut();
+        reportsWhyARequestWasNotPlaced();
+        parsesRequestLines();
+        System.out.println("EventPlannerTest passed");
+    }
+
+    // A greedy first-come pick would give Monday to a and leave b, whose window is Monday only, unplaced
+    private static void placesTheTightestWindowFirst() {
+        Map<Date, List<String>> slots = new HashMap<>();
+        slots.put(MON, List.of("c1"));
+        slots.put(TUE, List.of("c2"));
+        EventPlan plan = new EventPlanner(slots, Map.of("Pfizer", 10)).plan(List.of(
+                new PlanRequest(1, "a", "Pfizer", MON, TUE),
+                new PlanRequest(2, "b", "Pfizer", MON, MON)), Set.of("a", "b"));
+        check(plan.getUnplaced().isEmpty(), "both placed");
+        check(dayOf(plan, "b").equals(MON), "b on Monday");
+        check(dayOf(plan, "a").equals(TUE), "a on Tuesday");
+        check(plan.getUsed().get(MON) == 1 && plan.getOffered().get(TUE) == 1, "utilization per day");
+    }
+
+    private static void keepsComponentsApart() {
+        Map<Date, List<String>> slots = new HashMap<>();
+        slots.put(MON, List.of("c2", "c1"));
+        slots.put(FRI, List.of("c3"));
+        EventPlan plan = new EventPlanner(slots, Map.of("Pfizer", 10)).plan(List.of(
+                new PlanRequest(1, "a", "Pfizer", MON, MON),
+                new PlanRequest(2, "b", "Pfizer", MON, MON),
+                new PlanRequest(3, "c", "Pfizer", FRI, FRI),
+                new PlanRequest(4, "d", "Pfizer", FRI, FRI)), Set.of("a", "b", "c", "d"));
+        check(plan.getAppointments().size() == 3, "three placed");
+        // caregivers go to patients in file order, both sorted
+        check(caregiverOf(plan, "a").equals("c1") && caregiverOf(plan, "b").equals("c2"), "reproducible pairing");
+        check(EventPlanner.NO_SLOT.equals(reason(plan, "d")), "d has no slot");
+    }
+
+    private static void dropsTheLatestRequestsWhenDosesRunOut() {
+        Map<Date, List<String>> slots = new HashMap<>();
+        slots.put(MON, List.of("c1", "c2"));
+        slots.put(WED, List.of("c3"));
+        EventPlan plan = new EventPlanner(slots, Map.of("Pfizer", 1, "Moderna", 5)).plan(List.of(
+                new PlanRequest(1, "a", "Pfizer", MON, MON),
+                new PlanRequest(2, "b", "Moderna", MON, WED),
+                new PlanRequest(3, "c", "Pfizer", WED, WED),
+                new PlanRequest(4, "d", "Pfizer", MON, MON)), Set.of("a", "b", "c", "d"));
+        check(EventPlanner.NO_DOSES.equals(reason(plan, "d")), "the latest Pfizer request is dropped");
+        check(EventPlanner.NO_DOSES.equals(reason(plan, "c")), "then the next latest");
+        check(plan.getAppointments().size() == 2, "the others are placed");
+        check(dayOf(plan, "a").equals(MON), "the earliest Pfizer request keeps its dose");
+        // with d dropped, its Monday slot is free again for b
+        check(dayOf(plan, "b").equals(MON), "b moves into the freed slot");
+    }
+
+    private static void reportsWhyARequestWasNotPlaced() {
+        Map<Date, List<String>> slots = new HashMap<>();
+        slots.put(MON, List.of("c1", "c2", "c3"));
+        List<PlanRequest> requests = List.of(
+                new PlanRequest(1, "a", "Pfizer", MON, MON),
+                new PlanRequest(2, "a", "Pfizer", MON, MON),
+                new PlanRequest(3, "ghost", "Pfizer", MON, MON),
+                new PlanRequest(4, "b", "Janssen", MON, MON),
+                new PlanRequest(5, "c", "Pfizer", TUE, WED));
+        EventPlan plan = new EventPlanner(slots, Map.of("Pfizer", 10)).plan(requests, Set.of("a", "b", "c"));
+        check(plan.getAppointments().size() == 1, "only a is placed");
+        check(EventPlanner.DUPLICATE.equals(plan.getUnplaced().get(requests.get(1))), "duplicate");
+        check(EventPlanner.UNKNOWN_PATIENT.equals(reason(plan, "ghost")), "unknown patient");
+        check(EventPlanner.NO_DOSES.equals(reason(plan, "b")), "unknown vaccine");
+        check(EventPlanner.NO_SLOT.equals(reason(plan, "c")), "no day in the window");
+        check(new HashSet<>(List.copyOf(plan.getUnplaced().keySet())).size() == 4, "four unplaced");
+    }
+
+    private static void parsesRequestLines() {
+        PlanRequest request = PlanRequest.parse(7, "  a Pfizer 2026-03-02   2026-03-04 ");
+        check(request.getLine() == 7 && request.getFrom().equals(MON) && request.getTo().equals(WED), "parsed");
+        check(PlanRequest.parse(1, "# comment") == null && PlanRequest.parse(2, " ") == null, "skipped lines");
+        check("<to> is not a yyyy-mm-dd date: 2026-13-01".equals(parseError("a Pfizer 2026-03-02 2026-13-01")),
+                "names the bad field and its value");
+        check(parseError("a Pfizer 2026-03-04 2026-03-02") != null, "window ends before it starts");
+        check(parseError("a Pfizer 2026-03-02") != null, "missing field");
+    }
+
+    private static String parseError(String text) {
+        try {
+            PlanRequest.parse(1, text);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static Date dayOf(EventPlan plan, String patientUser) {
+        return appointmentOf(plan, patientUser).getApptTime();
+    }
+
+    private static String caregiverOf(EventPlan plan, String patientUser) {
+        return appointmentOf(plan, patientUser).getCaregiverUser();
+    }
+
+    private static Appointment appointmentOf(EventPlan plan, String patientUser) {
+        for (Appointment appointment : plan.getAppointments()) {
+            if (appointment.getPatientUser().equals(patientUser)) {
+                return appointment;
+            }
+        }
+        throw new AssertionError(patientUser + " was not placed");
+    }
+
+    private static String reason(EventPlan plan, String patientUser) {
+        for (Map.Entry<PlanRequest, String> unplaced : plan.getUnplaced().entrySet()) {
+            if (unplaced.getKey().getPatientUser().equals(patientUser)) {
+                return unplaced.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
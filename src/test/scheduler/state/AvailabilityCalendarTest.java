@@ -0,0 +1,89 @@
+package scheduler.state;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+// Run with: java -cp <classes> scheduler.state.AvailabilityCalendarTest
+public class AvailabilityCalendarTest {
+    private static final YearMonth MARCH = YearMonth.of(2026, 3);
+
+    public static void main(String[] args) {
+        bitmapSetsAndClearsDays();
+        bitmapKeepsMonthsApart();
+        calendarCombinesCaregivers();
+        System.out.println("AvailabilityCalendarTest passed");
+    }
+
+    private static void bitmapSetsAndClearsDays() {
+        DayBitmap days = new DayBitmap();
+        days.set(MARCH.atDay(1));
+        days.set(MARCH.atDay(31));
+        days.set(MARCH.atDay(31));
+        check(days.month(MARCH) == (1 | 1 << 30), "first and last day of a 31 day month");
+        days.clear(MARCH.atDay(1));
+        check(days.month(MARCH) == 1 << 30, "cleared");
+        days.clear(MARCH.atDay(15));
+        check(days.month(MARCH) == 1 << 30, "clearing a day that is not set changes nothing");
+        days.clear(MARCH.atDay(31));
+        check(days.month(MARCH) == 0, "an empty month reads as empty");
+        days.clear(YearMonth.of(2030, 1).atDay(1));
+    }
+
+    private static void bitmapKeepsMonthsApart() {
+        DayBitmap days = new DayBitmap();
+        // added out of order and past the initial capacity, so months are inserted in the middle and grown
+        for (int month = 12; month >= 1; month -= 2) {
+            days.set(LocalDate.of(2026, month, month));
+        }
+        days.set(LocalDate.of(2025, 12, 31));
+        days.set(LocalDate.of(2026, 3, 4));
+        for (int month = 1; month <= 12; month++) {
+            int expected = month % 2 == 0 ? 1 << (month - 1) : 0;
+            if (month == 3) {
+                expected = 1 << 3;
+            }
+            check(days.month(YearMonth.of(2026, month)) == expected, "month " + month);
+        }
+        check(days.month(YearMonth.of(2025, 12)) == 1 << 30, "the year before");
+        days.clear(LocalDate.of(2026, 6, 6));
+        check(days.month(YearMonth.of(2026, 6)) == 0 && days.month(YearMonth.of(2026, 8)) == 1 << 7,
+                "dropping a month leaves its neighbours");
+        check(DayBitmap.monthKey(YearMonth.of(2026, 1)) + 1 == DayBitmap.monthKey(YearMonth.of(2026, 2))
+                && DayBitmap.monthKey(YearMonth.of(2025, 12)) + 1 == DayBitmap.monthKey(YearMonth.of(2026, 1)),
+                "month keys are consecutive across years");
+    }
+
+    private static void calendarCombinesCaregivers() {
+        AvailabilityCalendar calendar = new AvailabilityCalendar();
+        calendar.load(Map.of(
+                Date.valueOf("2026-03-02"), List.of("c1", "c2"),
+                Date.valueOf("2026-03-03"), List.of("c1"),
+                Date.valueOf("2026-04-01"), List.of("c2")));
+        check(AvailabilityCalendar.days(MARCH, calendar.anyAvailable(MARCH))
+                .equals(List.of(MARCH.atDay(2), MARCH.atDay(3))), "any caregiver");
+        check(AvailabilityCalendar.days(MARCH, calendar.allAvailable(MARCH, List.of("c1", "c2")))
+                .equals(List.of(MARCH.atDay(2))), "every caregiver");
+        check(calendar.allAvailable(MARCH, List.of("c1", "nobody")) == 0, "an unknown caregiver is never free");
+        check(calendar.allAvailable(MARCH, List.of()) == 0, "no caregivers");
+
+        calendar.remove(Date.valueOf("2026-03-02"), "c2");
+        calendar.remove(Date.valueOf("2026-03-02"), "nobody");
+        check(calendar.allAvailable(MARCH, List.of("c1", "c2")) == 0, "booked");
+        calendar.add(Date.valueOf("2026-03-31"), "c3");
+        check(AvailabilityCalendar.days(MARCH, calendar.anyAvailable(MARCH))
+                .equals(List.of(MARCH.atDay(2), MARCH.atDay(3), MARCH.atDay(31))), "uploaded");
+
+        calendar.load(Map.of(Date.valueOf("2026-03-05"), List.of("c4")));
+        check(AvailabilityCalendar.days(MARCH, calendar.anyAvailable(MARCH)).equals(List.of(MARCH.atDay(5))),
+                "load replaces everything");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package scheduler.state;
+
+import java.sql.Date;
+
+// Run with: java -cp <classes> scheduler.state.LotInventoryTest
+public class LotInventoryTest {
+    private static final Date MARCH = Date.valueOf("2026-03-01");
+    private static final Date APRIL = Date.valueOf("2026-04-01");
+    private static final Date MAY = Date.valueOf("2026-05-01");
+
+    public static void main(String[] args) {
+        allocatesTheEarliestExpiringGoodLot();
+        releaseAndRemoteChangesMoveTheLotInAndOut();
+        System.out.println("LotInventoryTest passed");
+    }
+
+    private static void allocatesTheEarliestExpiringGoodLot() {
+        LotInventory lots = new LotInventory();
+        lots.add("Pfizer", "late", MAY, 1);
+        lots.add("Pfizer", "early", APRIL, 1);
+        check("early".equals(lots.allocate("Pfizer", MARCH)), "earliest expiry first");
+        check("late".equals(lots.allocate("Pfizer", MARCH)), "then the next one");
+        check(lots.allocate("Pfizer", MARCH) == null, "both used up");
+        lots.add("Pfizer", "early", APRIL, 1);
+        lots.release("Pfizer", "late");
+        check("late".equals(lots.allocate("Pfizer", Date.valueOf("2026-04-15"))), "an expired lot is skipped");
+        check(lots.allocate("Pfizer", Date.valueOf("2026-04-15")) == null && lots.hasDoses("Pfizer"),
+                "only expired doses left");
+        check(lots.allocate("Moderna", MARCH) == null, "unknown vaccine");
+    }
+
+    private static void releaseAndRemoteChangesMoveTheLotInAndOut() {
+        LotInventory lots = new LotInventory();
+        lots.add("Pfizer", "a", MAY, 2);
+        // another instance took both doses
+        lots.add("Pfizer", "a", MAY, -2);
+        check(lots.allocate("Pfizer", MARCH) == null, "drained remotely");
+        check(!lots.hasDoses("Pfizer"), "a drained lot has no doses");
+        lots.add("Pfizer", "a", MAY, 1);
+        check("a".equals(lots.allocate("Pfizer", MARCH)), "topped up remotely");
+        lots.release("Pfizer", "a");
+        check("a".equals(lots.allocate("Pfizer", MARCH)), "released dose is offered again");
+        lots.release("Pfizer", null);
+        lots.take("Pfizer", "a");
+        check(lots.allocate("Pfizer", MARCH) == null, "take on an empty lot changes nothing");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
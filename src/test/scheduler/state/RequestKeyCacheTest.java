@@ -0,0 +1,49 @@
+package scheduler.state;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+
+// Run with: java -cp <classes> scheduler.state.RequestKeyCacheTest
+public class RequestKeyCacheTest {
+    private static final Date DAY = Date.valueOf("2026-03-02");
+
+    public static void main(String[] args) {
+        keysByPatientAndKey();
+        dropsTheLeastRecentlyUsed();
+        System.out.println("RequestKeyCacheTest passed");
+    }
+
+    private static void keysByPatientAndKey() {
+        RequestKeyCache cache = new RequestKeyCache(10);
+        Appointment first = appointment(1, "p1");
+        cache.put("p1", "k1", first);
+        check(cache.get("p1", "k1") == first, "found");
+        check(cache.get("p2", "k1") == null, "another patient's key is not shared");
+        check(cache.get("p1", "k2") == null, "another key");
+        Appointment second = appointment(2, "p1");
+        cache.put("p1", "k1", second);
+        check(cache.get("p1", "k1") == second, "a later put replaces the entry");
+    }
+
+    private static void dropsTheLeastRecentlyUsed() {
+        RequestKeyCache cache = new RequestKeyCache(2);
+        cache.put("p1", "k", appointment(1, "p1"));
+        cache.put("p2", "k", appointment(2, "p2"));
+        // a retry counts as a use, so p2 is the one to go
+        cache.get("p1", "k");
+        cache.put("p3", "k", appointment(3, "p3"));
+        check(cache.get("p1", "k") != null && cache.get("p3", "k") != null, "kept");
+        check(cache.get("p2", "k") == null, "pushed out");
+    }
+
+    private static Appointment appointment(int apptId, String patientUser) {
+        return new Appointment(apptId, "c1", patientUser, "Pfizer", DAY);
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
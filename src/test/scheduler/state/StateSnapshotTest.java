@@ -0,0 +1,170 @@
+package scheduler.state;
+
+import scheduler.db.ConnectionManager;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// Run with: java -cp <classes> scheduler.state.StateSnapshotTest
+public class StateSnapshotTest {
+    private static final Date MON = Date.valueOf("2026-03-02");
+    private static final Date TUE = Date.valueOf("2026-03-03");
+
+    public static void main(String[] args) throws IOException, SQLException {
+        Path dir = Files.createTempDirectory("snapshot-test");
+        try {
+            roundTrips(dir.resolve("state.snapshot"));
+            ignoresAMissingOrDamagedSnapshot(dir.resolve("damaged.snapshot"));
+            reconcilesOnlyWhatChanged();
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+        System.out.println("StateSnapshotTest passed");
+    }
+
+    private static SchedulerState sample() {
+        SchedulerState state = new SchedulerState();
+        state.setDoses("Pfizer", 3);
+        state.setDoses("Moderna", 0);
+        state.addAvailability(MON, "c2");
+        state.addAvailability(MON, "c1");
+        state.addAvailability(TUE, "c3");
+        state.getPatients().addAll(Set.of("p1", "p2"));
+        state.getCaregivers().addAll(Set.of("c1", "c2", "c3"));
+        state.setWatermark(5, 10);
+        return state;
+    }
+
+    private static void roundTrips(Path file) throws IOException {
+        StateSnapshot.write(sample(), file);
+        check(!Files.exists(file.resolveSibling(file.getFileName() + ".tmp")), "the temporary file is renamed");
+        SchedulerState read = StateSnapshot.read(file);
+        check(read != null, "read back");
+        check(read.getAllDoses().equals(Map.of("Pfizer", 3, "Moderna", 0)), "doses");
+        check(read.getAvailableCaregivers(MON).equals(List.of("c1", "c2")), "caregivers stay sorted");
+        check(read.getAvailableCaregivers(TUE).equals(List.of("c3")), "every day");
+        check(read.getPatients().equals(Set.of("p1", "p2")) && read.getCaregivers().size() == 3, "usernames");
+        check(read.getRowVersion() == 5 && read.getLastApptId() == 10, "watermarks");
+    }
+
+    private static void ignoresAMissingOrDamagedSnapshot(Path file) throws IOException {
+        check(StateSnapshot.read(file) == null, "no snapshot yet");
+        StateSnapshot.write(sample(), file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, 30);
+            b.put(0, (byte) (b.get(0) ^ 1));
+            channel.write(b.rewind(), 30);
+        }
+        check(StateSnapshot.read(file) == null, "a bad checksum means a full load");
+        Files.write(file, new byte[8]);
+        check(StateSnapshot.read(file) == null, "too short");
+    }
+
+    private static void reconcilesOnlyWhatChanged() throws SQLException {
+        SchedulerState state = sample();
+        FakeDatabase db = new FakeDatabase();
+        db.rows("MIN_ACTIVE_ROWVERSION", List.of(row("RowVer", ByteBuffer.allocate(8).putLong(9).array())));
+        db.rows("FROM Vaccines", List.of(row("Name", "Pfizer", "Doses", 1), row("Name", "Janssen", "Doses", 4)));
+        // c2 was booked on Monday, c1 was booked and then uploaded Monday again
+        db.rows("FROM Appointments", List.of(row("ApptID", 11L, "CaregiverUser", "c2", "ApptTime", MON),
+                row("ApptID", 12L, "CaregiverUser", "c1", "ApptTime", MON)));
+        db.rows("FROM Availabilities", List.of(row("Time", MON, "Username", "c1"), row("Time", TUE, "Username", "c4")));
+        state.reconcile(db);
+
+        check(db.parameters("FROM Appointments").get(1).equals(10L), "appointments after the last seen ApptID");
+        check(ByteBuffer.wrap((byte[]) db.parameters("FROM Availabilities").get(1)).getLong() == 5,
+                "availabilities changed since the snapshot");
+        check(state.getAllDoses().equals(Map.of("Pfizer", 1, "Moderna", 0, "Janssen", 4)), "doses are re-read");
+        check(state.getAvailableCaregivers(MON).equals(List.of("c1")), "booked slots go, re-uploaded ones come back");
+        check(state.getAvailableCaregivers(TUE).equals(List.of("c3", "c4")), "new slots are added");
+        check(state.getRowVersion() == 9 && state.getLastApptId() == 12, "watermarks move forward");
+    }
+
+    private static Map<String, Object> row(Object... columns) {
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 0; i < columns.length; i += 2) {
+            row.put((String) columns[i], columns[i + 1]);
+        }
+        return row;
+    }
+
+    // Answers each prepared query with canned rows picked by a fragment of its SQL, and keeps its parameters
+    private static class FakeDatabase extends ConnectionManager {
+        private final Map<String, List<Map<String, Object>>> results = new LinkedHashMap<>();
+        private final Map<String, Map<Integer, Object>> parameters = new HashMap<>();
+
+        private void rows(String fragment, List<Map<String, Object>> rows) {
+            results.put(fragment, rows);
+        }
+
+        private Map<Integer, Object> parameters(String fragment) {
+            return parameters.get(fragment);
+        }
+
+        @Override
+        public PreparedStatement prepare(String sql) {
+            String fragment = results.keySet().stream().filter(sql::contains).findFirst()
+                    .orElseThrow(() -> new AssertionError("unexpected query: " + sql));
+            Map<Integer, Object> values = parameters.computeIfAbsent(fragment, k -> new HashMap<>());
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> {
+                        if (method.getName().startsWith("set")) {
+                            values.put((Integer) args[0], args[1]);
+                            return null;
+                        }
+                        if (method.getName().equals("executeQuery")) {
+                            return resultSet(results.get(fragment));
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+
+        private ResultSet resultSet(List<Map<String, Object>> rows) {
+            Iterator<Map<String, Object>> iterator = new ArrayList<>(rows).iterator();
+            Object[] current = new Object[1];
+            return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ResultSet.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "next" -> {
+                            current[0] = iterator.hasNext() ? iterator.next() : null;
+                            yield current[0] != null;
+                        }
+                        case "close" -> null;
+                        case "getString", "getInt", "getLong", "getDate", "getBytes" -> {
+                            @SuppressWarnings("unchecked")
+                            Map<String, Object> row = (Map<String, Object>) current[0];
+                            yield row.get((String) args[0]);
+                        }
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package scheduler.util;
+
+// Run with: java -cp <classes> scheduler.util.PasswordPolicyTest
+public class PasswordPolicyTest {
+    private static final PasswordPolicy POLICY = PasswordPolicy.DEFAULT;
+
+    public static void main(String[] args) {
+        acceptsAPasswordThatMeetsEveryRule();
+        checksEachRuleOnItsOwn();
+        reportsEveryRule();
+        System.out.println("PasswordPolicyTest passed");
+    }
+
+    private static void acceptsAPasswordThatMeetsEveryRule() {
+        check(PasswordPolicy.isSatisfied(POLICY.check("Passw0rd!")), "the usual shape");
+        // the rules look at the whole password, not at neighbouring characters or single words
+        check(PasswordPolicy.isSatisfied(POLICY.check("1abc$DEFG")), "a digit before the letters");
+        check(PasswordPolicy.isSatisfied(POLICY.check("abc DEF 9?")), "the cases in different words");
+        check(PasswordPolicy.isSatisfied(POLICY.check("\u00C5Bcdefg1#")), "other characters are allowed");
+        // only A-Z and a-z count as letters
+        check(rules("\u00C5bcdefg1#") == 0b1101, "a non-ASCII capital is not uppercase");
+    }
+
+    private static void checksEachRuleOnItsOwn() {
+        check(rules("Pa1!") == 0b1110, "too short");
+        check(rules("password1!") == 0b1101, "lowercase only");
+        check(rules("PASSWORD1!") == 0b1101, "uppercase only");
+        check(rules("Password!!") == 0b1011, "no digit");
+        check(rules("12345678!") == 0b1001, "digits only");
+        check(rules("Password1%") == 0b0111, "a special character that is not listed");
+        check(rules("Password1\u00E9") == 0b0111, "a character outside ASCII is not special");
+        check(rules("") == 0, "empty");
+        check(rules("Passw0r!") == 0b1111, "exactly eight characters");
+
+        PasswordPolicy shorter = new PasswordPolicy(4, "%");
+        check(PasswordPolicy.isSatisfied(shorter.check("Ab1%")), "a custom length and special character");
+        check(!PasswordPolicy.isSatisfied(shorter.check("Ab1!")), "the default specials no longer count");
+    }
+
+    private static void reportsEveryRule() {
+        String report = POLICY.report(POLICY.check("password"));
+        String[] lines = report.split("\n");
+        check(lines.length == 4, "one line per rule");
+        check(lines[0].equals("Password is at least 8 characters: Yes"), "length line");
+        check(lines[1].endsWith(": No") && lines[2].endsWith(": No"), "failed rules");
+        check(lines[3].equals("Password includes at least one special character, from '!', '@', '#', '$', '?': No"),
+                "the specials are listed");
+    }
+
+    private static int rules(String password) {
+        return POLICY.check(password);
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}